@@ -0,0 +1,446 @@
+package edu.neu.nutrons.fpmadop;
+
+/**
+ * Evaluates one graph of {@link NumFunc} and {@link BoolFunc} operators for
+ * many sets of inputs at once, for parameter sweeps and Monte-Carlo runs. The
+ * graph is compiled like {@link NumFunc#compile(Num)}, but every slot holds an
+ * array with one value per lane, and every instruction is a tight loop over
+ * the lanes. Inputs that differ between lanes are {@link Batch.NumLanes} and
+ * {@link Batch.BoolLanes} leaves; every other leaf (a sensor, a block, a
+ * constant) is read once and shared by all lanes. Booleans are packed 64
+ * lanes to a {@code long}, so each boolean operator handles 64 lanes per
+ * instruction.
+ * <pre>
+ * Batch.NumLanes gain = new Batch.NumLanes(1000);
+ * // Fill in gain.values...
+ * Batch b = new Batch(NumFunc.limit(-1, 1, NumFunc.prod(gain, error)), 1000);
+ * b.execute();
+ * double[] outputs = b.getN();
+ * </pre>
+ * Each lane gives exactly the same result as evaluating the graph with that
+ * lane's inputs.
+ *
+ * @author Ziv
+ */
+public class Batch {
+
+    // A multiple of 64, so strips start on a word boundary.
+    private static final int STRIP = 256;
+
+    /**
+     * A number with a different value in each lane. Outside of a batch, it
+     * acts as its value in the first lane.
+     */
+    public static class NumLanes implements Num {
+        /**
+         * The value in each lane.
+         */
+        public final double[] values;
+        /**
+         * Creates a number with every lane zero.
+         * @param lanes How many lanes there are.
+         */
+        public NumLanes(int lanes) {
+            values = new double[lanes];
+        }
+        public double getN() {
+            return values[0];
+        }
+    }
+
+    /**
+     * A boolean with a different value in each lane. Outside of a batch, it
+     * acts as its value in the first lane.
+     */
+    public static class BoolLanes implements Bool {
+        /**
+         * The value in each lane.
+         */
+        public final boolean[] values;
+        /**
+         * Creates a boolean with every lane false.
+         * @param lanes How many lanes there are.
+         */
+        public BoolLanes(int lanes) {
+            values = new boolean[lanes];
+        }
+        public boolean getB() {
+            return values[0];
+        }
+    }
+
+    private int lanes;
+    private int[] code;
+    private double[][] ns;
+    // Lane l of a boolean slot is bit l%64 of word l/64.
+    private long[][] bs;
+    private Num[] numLeaves;
+    private Bool[] boolLeaves;
+    // Leaves shared by every lane, read once per run.
+    private double[] leafNs;
+    private boolean[] leafBs;
+    private int root;
+    private boolean[] unpacked = null;
+
+    private Batch(Program p, int lanes) {
+        this.lanes = lanes;
+        code = p.code;
+        numLeaves = p.numLeaves;
+        boolLeaves = p.boolLeaves;
+        root = p.root;
+        leafNs = new double[numLeaves.length];
+        leafBs = new boolean[boolLeaves.length];
+        ns = new double[p.ns.length][lanes];
+        bs = new long[p.bs.length][(lanes + 63) >>> 6];
+        // Constants are already in their slots; everything else is
+        // overwritten when the batch runs.
+        for(int s=0; s<ns.length; s++) {
+            fill(ns[s], 0, lanes, p.ns[s]);
+        }
+        for(int s=0; s<bs.length; s++) {
+            fill(bs[s], 0, bs[s].length, p.bs[s]);
+        }
+        for(int i=0; i<numLeaves.length; i++) {
+            if(numLeaves[i] instanceof NumLanes
+               && ((NumLanes)numLeaves[i]).values.length < lanes) {
+                throw new IllegalArgumentException("Too few lanes in input");
+            }
+        }
+        for(int i=0; i<boolLeaves.length; i++) {
+            if(boolLeaves[i] instanceof BoolLanes
+               && ((BoolLanes)boolLeaves[i]).values.length < lanes) {
+                throw new IllegalArgumentException("Too few lanes in input");
+            }
+        }
+    }
+
+    /**
+     * Compiles a graph whose output is a number.
+     * @param x The root of the graph.
+     * @param lanes How many sets of inputs to evaluate it for.
+     */
+    public Batch(Num x, int lanes) {
+        this(Program.compile(x, null), lanes);
+    }
+
+    /**
+     * Compiles a graph whose output is a boolean.
+     * @param p The root of the graph.
+     * @param lanes How many sets of inputs to evaluate it for.
+     */
+    public Batch(Bool p, int lanes) {
+        this(Program.compile(p, null), lanes);
+    }
+
+    private static void fill(double[] xs, int lo, int hi, double x) {
+        for(int l=lo; l<hi; l++) {
+            xs[l] = x;
+        }
+    }
+
+    // Sets every lane of words lo through hi-1.
+    private static void fill(long[] ws, int lo, int hi, boolean p) {
+        long w = p ? -1L : 0L;
+        for(int i=lo; i<hi; i++) {
+            ws[i] = w;
+        }
+    }
+
+    /**
+     * How many lanes there are.
+     * @return The number of lanes.
+     */
+    public int lanes() {
+        return lanes;
+    }
+
+    /**
+     * The output of every lane, for a graph whose output is a number.
+     * @return The outputs as of the latest {@link Batch#execute()}. The array
+     * is reused by the next run and must not be modified.
+     */
+    public double[] getN() {
+        return ns[root];
+    }
+
+    /**
+     * The output of every lane, for a graph whose output is a boolean.
+     * @return The outputs as of the latest {@link Batch#execute()}. The array
+     * is reused by the next call and must not be modified.
+     */
+    public boolean[] getB() {
+        if(unpacked == null) {
+            unpacked = new boolean[lanes];
+        }
+        long[] ws = bs[root];
+        for(int l=0; l<lanes; l++) {
+            unpacked[l] = ((ws[l >>> 6] >>> l) & 1L) != 0;
+        }
+        return unpacked;
+    }
+
+    /**
+     * The output of every lane, packed, for a graph whose output is a
+     * boolean.
+     * @return The outputs as of the latest {@link Batch#execute()}: lane
+     * {@code l} is bit {@code l % 64} of word {@code l / 64}. Bits past the
+     * last lane are meaningless. The array is reused by the next run and must
+     * not be modified.
+     */
+    public long[] getWords() {
+        return bs[root];
+    }
+
+    /**
+     * Evaluates the graph in every lane.
+     */
+    public void execute() {
+        for(int i=0; i<numLeaves.length; i++) {
+            if(!(numLeaves[i] instanceof NumLanes)) {
+                leafNs[i] = numLeaves[i].getN();
+            }
+        }
+        for(int i=0; i<boolLeaves.length; i++) {
+            if(!(boolLeaves[i] instanceof BoolLanes)) {
+                leafBs[i] = boolLeaves[i].getB();
+            }
+        }
+        // Running the whole program over a few lanes at a time keeps every
+        // slot's lanes in cache.
+        for(int lo=0; lo<lanes; lo+=STRIP) {
+            execute(lo, Math.min(lanes, lo + STRIP));
+        }
+    }
+
+    // Evaluates the graph in lanes lo through hi-1. Each operator is its own
+    // method so the JIT compiles each loop on its own.
+    private void execute(int lo, int hi) {
+        // The same lanes as words.
+        int wlo = lo >>> 6;
+        int whi = (hi + 63) >>> 6;
+        int pc = 0;
+        while(pc < code.length) {
+            int op = code[pc];
+            int argc = code[pc+2];
+            int a = pc + 3;
+            switch(op) {
+                case Program.LOAD_N: {
+                    double[] d = ns[code[pc+1]];
+                    Num leaf = numLeaves[code[a]];
+                    if(leaf instanceof NumLanes) {
+                        System.arraycopy(((NumLanes)leaf).values, lo, d, lo,
+                                         hi - lo);
+                    }
+                    else {
+                        fill(d, lo, hi, leafNs[code[a]]);
+                    }
+                    break;
+                }
+                case Program.LOAD_B: {
+                    long[] d = bs[code[pc+1]];
+                    Bool leaf = boolLeaves[code[a]];
+                    if(leaf instanceof BoolLanes) {
+                        pack(d, ((BoolLanes)leaf).values, lo, hi);
+                    }
+                    else {
+                        fill(d, wlo, whi, leafBs[code[a]]);
+                    }
+                    break;
+                }
+                case Node.SUM:
+                    fill(ns[code[pc+1]], lo, hi, 0.0);
+                    for(int i=0; i<argc; i++) {
+                        add(ns[code[pc+1]], ns[code[a+i]], lo, hi);
+                    }
+                    break;
+                case Node.PROD:
+                    fill(ns[code[pc+1]], lo, hi, 1.0);
+                    for(int i=0; i<argc; i++) {
+                        multiply(ns[code[pc+1]], ns[code[a+i]], lo, hi);
+                    }
+                    break;
+                case Node.DIFF:
+                    diff(ns[code[pc+1]], ns[code[a]], ns[code[a+1]], lo, hi);
+                    break;
+                case Node.QUOT:
+                    quot(ns[code[pc+1]], ns[code[a]], ns[code[a+1]], lo, hi);
+                    break;
+                case Node.BOOL_TO_NUM:
+                    boolToNum(ns[code[pc+1]], bs[code[a]], lo, hi);
+                    break;
+                case Node.LIMIT:
+                    limit(ns[code[pc+1]], ns[code[a]], ns[code[a+1]],
+                          ns[code[a+2]], lo, hi);
+                    break;
+                case Node.DEADBAND:
+                    deadband(ns[code[pc+1]], ns[code[a]], ns[code[a+1]],
+                             ns[code[a+2]], lo, hi);
+                    break;
+                case Node.MAX:
+                    fill(ns[code[pc+1]], lo, hi, Double.NEGATIVE_INFINITY);
+                    for(int i=0; i<argc; i++) {
+                        max(ns[code[pc+1]], ns[code[a+i]], lo, hi);
+                    }
+                    break;
+                case Node.MIN:
+                    fill(ns[code[pc+1]], lo, hi, Double.POSITIVE_INFINITY);
+                    for(int i=0; i<argc; i++) {
+                        min(ns[code[pc+1]], ns[code[a+i]], lo, hi);
+                    }
+                    break;
+                case Node.NUM_MUX:
+                    numMux(ns[code[pc+1]], code, a, argc, lo, hi);
+                    break;
+                case Node.NOT:
+                    not(bs[code[pc+1]], bs[code[a]], wlo, whi);
+                    break;
+                case Node.OR:
+                    fill(bs[code[pc+1]], wlo, whi, false);
+                    for(int i=0; i<argc; i++) {
+                        or(bs[code[pc+1]], bs[code[a+i]], wlo, whi);
+                    }
+                    break;
+                case Node.AND:
+                    fill(bs[code[pc+1]], wlo, whi, true);
+                    for(int i=0; i<argc; i++) {
+                        and(bs[code[pc+1]], bs[code[a+i]], wlo, whi);
+                    }
+                    break;
+                case Node.XOR:
+                    xor(bs[code[pc+1]], bs[code[a]], bs[code[a+1]], wlo,
+                        whi);
+                    break;
+                case Node.IN_RANGE:
+                    inRange(bs[code[pc+1]], ns[code[a]], ns[code[a+1]],
+                            ns[code[a+2]], lo, hi);
+                    break;
+            }
+            pc = a + argc;
+        }
+    }
+
+    private static void add(double[] d, double[] x, int lo, int hi) {
+        for(int l=lo; l<hi; l++) {
+            d[l] += x[l];
+        }
+    }
+
+    private static void multiply(double[] d, double[] x, int lo, int hi) {
+        for(int l=lo; l<hi; l++) {
+            d[l] *= x[l];
+        }
+    }
+
+    private static void diff(double[] d, double[] x, double[] y, int lo,
+                             int hi) {
+        for(int l=lo; l<hi; l++) {
+            d[l] = x[l] - y[l];
+        }
+    }
+
+    private static void quot(double[] d, double[] x, double[] y, int lo,
+                             int hi) {
+        for(int l=lo; l<hi; l++) {
+            // Same 0/0 hack as NumFunc.quot.
+            d[l] = (y[l] == 0.0 && Math.abs(x[l]) < 0.0001) ? 1.0
+                                                             : x[l] / y[l];
+        }
+    }
+
+    private static void pack(long[] d, boolean[] p, int lo, int hi) {
+        for(int l=lo; l<hi; l+=64) {
+            long w = 0L;
+            int end = Math.min(hi, l + 64);
+            for(int k=l; k<end; k++) {
+                if(p[k]) {
+                    w |= 1L << k;
+                }
+            }
+            d[l >>> 6] = w;
+        }
+    }
+
+    private static void boolToNum(double[] d, long[] p, int lo, int hi) {
+        for(int l=lo; l<hi; l++) {
+            d[l] = (double)((p[l >>> 6] >>> l) & 1L);
+        }
+    }
+
+    private static void limit(double[] d, double[] min, double[] max,
+                              double[] x, int lo, int hi) {
+        for(int l=lo; l<hi; l++) {
+            d[l] = Math.max(Math.min(x[l], max[l]), min[l]);
+        }
+    }
+
+    private static void deadband(double[] d, double[] center, double[] range,
+                                 double[] x, int lo, int hi) {
+        for(int l=lo; l<hi; l++) {
+            d[l] = (x[l] < center[l] + range[l] && x[l] > center[l] - range[l])
+                   ? center[l] : x[l];
+        }
+    }
+
+    private static void max(double[] d, double[] x, int lo, int hi) {
+        for(int l=lo; l<hi; l++) {
+            d[l] = Math.max(d[l], x[l]);
+        }
+    }
+
+    private static void min(double[] d, double[] x, int lo, int hi) {
+        for(int l=lo; l<hi; l++) {
+            d[l] = Math.min(d[l], x[l]);
+        }
+    }
+
+    private void numMux(double[] d, int[] code, int a, int argc, int lo,
+                        int hi) {
+        // Selector first, then the options. Rounds like
+        // Multiplexer#getChoice().
+        double[] s = ns[code[a]];
+        int last = argc - 2;
+        for(int l=lo; l<hi; l++) {
+            int i = (int)(0.5 + Math.max(Math.min(s[l], last), 0));
+            d[l] = ns[code[a+1+i]][l];
+        }
+    }
+
+    // Boolean operators work on words lo through hi-1.
+    private static void not(long[] d, long[] p, int lo, int hi) {
+        for(int i=lo; i<hi; i++) {
+            d[i] = ~p[i];
+        }
+    }
+
+    private static void or(long[] d, long[] p, int lo, int hi) {
+        for(int i=lo; i<hi; i++) {
+            d[i] |= p[i];
+        }
+    }
+
+    private static void and(long[] d, long[] p, int lo, int hi) {
+        for(int i=lo; i<hi; i++) {
+            d[i] &= p[i];
+        }
+    }
+
+    private static void xor(long[] d, long[] p, long[] q, int lo, int hi) {
+        for(int i=lo; i<hi; i++) {
+            d[i] = p[i] ^ q[i];
+        }
+    }
+
+    private static void inRange(long[] d, double[] min, double[] max,
+                                double[] x, int lo, int hi) {
+        for(int l=lo; l<hi; l+=64) {
+            long w = 0L;
+            int end = Math.min(hi, l + 64);
+            for(int k=l; k<end; k++) {
+                if(min[k] <= x[k] && x[k] <= max[k]) {
+                    w |= 1L << k;
+                }
+            }
+            d[l >>> 6] = w;
+        }
+    }
+}
@@ -9,7 +9,15 @@ package edu.neu.nutrons.fpmadop;
  */
 public abstract class Block {
 
+    private static final Num[] NO_NUMS = {};
+    private static final Bool[] NO_BOOLS = {};
     private BlockThread bt = null;
+    // The thread that actually handles this block, if any. Usually bt.
+    private BlockThread handler = null;
+    // Where this block is in its thread's registry, or -1 if it has none.
+    int slot = -1;
+    // How long handle takes, once the block has been handled while profiling.
+    Histogram timing = null;
 
     /**
      * Creates a block handled by the specified {@link BlockThread}.
@@ -17,7 +25,7 @@ public abstract class Block {
      */
     public Block(BlockThread thread) {
         // TODO: Test leaking.
-        setThread(bt);
+        setThread(thread);
     }
 
     /**
@@ -35,15 +43,28 @@ public abstract class Block {
      * @param thread The new thread.
      */
     protected final void setThread(BlockThread thread) {
-        if(bt != null) {
-            bt.removeBlock(this);
+        if(handler != null) {
+            handler.removeBlock(this);
         }
         bt = thread;
-        if(bt != null) {
-            bt.addBlock(this);
+        handler = (thread == null) ? null : handledBy(thread);
+        if(handler != null) {
+            handler.addBlock(this);
         }
     }
 
+    // The thread that handles this block when it's given the thread. A block
+    // whose value is only ever changed by the blocks it reads returns null and
+    // is never handled itself; readers are ordered after what it reads.
+    BlockThread handledBy(BlockThread thread) {
+        return thread;
+    }
+
+    // The thread this block is actually registered with, or null.
+    final BlockThread handler() {
+        return handler;
+    }
+
     /**
      * The method called repeatedly by this block's {@link BlockThread}.
      */
@@ -53,4 +74,32 @@ public abstract class Block {
      * If a block has anything to reset, do so.
      */
     public void reset() {}
+
+    /**
+     * The numbers read by {@link Block#handle()}. A {@link BlockThread} uses
+     * these to handle blocks that produce a value before blocks that read it.
+     * A block that overrides neither this nor {@link Block#inputBools()} might
+     * read anything, so it is always handled after every block added before
+     * it, and its thread never splits its blocks among workers (see
+     * {@link BlockThread#setParallelism(int)}).
+     * @return The numbers this block reads.
+     */
+    protected Num[] inputNums() {
+        return NO_NUMS;
+    }
+
+    /**
+     * The booleans read by {@link Block#handle()}. See
+     * {@link Block#inputNums()}.
+     * @return The booleans this block reads.
+     */
+    protected Bool[] inputBools() {
+        return NO_BOOLS;
+    }
+
+    // Whether this block says what it reads, by overriding inputNums or
+    // inputBools.
+    boolean declaresInputs() {
+        return inputNums() != NO_NUMS || inputBools() != NO_BOOLS;
+    }
 }
@@ -1,9 +1,7 @@
 package edu.neu.nutrons.fpmadop;
 
-import edu.neu.nutrons.fpmadop.wpiclone.Timer;
 import edu.wpi.first.wpilibj.IterativeRobot;
-import java.util.Enumeration;
-import java.util.TimerTask;
+import java.util.Hashtable;
 import java.util.Vector;
 
 /**
@@ -13,21 +11,47 @@ import java.util.Vector;
  * themselves to threads behind the scenes and the programmer never does it
  * manually.
  *
+ * Blocks are handled in dependency order: a block that reads another block's
+ * value is handled after it, so it sees the value from the current time step.
+ * See {@link Schedule} for details.
+ *
  * @author Ziv
  */
 public class BlockThread {
 
     private static final double MAIN_PERIOD = -1.0;
-    private Vector blocks = new Vector();
+    // Blocks are appended to the registry and removed by nulling their slot,
+    // so both are O(1). Holes are squeezed out when the thread reschedules.
+    private final Object registryLock = new Object();
+    private Block[] registry = new Block[16];
+    private int registrySize = 0;
+    // The tick only ever reads this array, so blocks can be added and removed
+    // from other threads while it runs.
+    private volatile Block[] schedule = new Block[0];
+    private volatile boolean rescheduled = true;
     private static BlockThread main = null;
-    private java.util.Timer loop = null;
-    private Num t;
+    private PeriodicScheduler loop = null;
+    private TickPool pool = null;
+    private volatile Publisher publisher = null;
+    private volatile Recorder[] recorders = new Recorder[0];
+    private volatile Profile profile = null;
+    private volatile SensorSnapshot snapshot = null;
+    // The Trigger for each Bool, so they're shared. See Trigger#of.
+    final Hashtable triggers = new Hashtable();
+    // Set for activation groups: the thread that runs the group, and the
+    // block in it that does so.
+    private BlockThread parent = null;
+    private Group group = null;
+    private final Hashtable groups = new Hashtable();
+    private int parallelism = 1;
+    private Clock t;
     private NumBlock dt;
+    private int ticks = 0;
 
-    // This class is necessary because run is public in the TimerTask interface,
+    // This class is necessary because run is public in the Runnable interface,
     // but we want the method that handles all blocks without checking whether
     // the thread is timed or manual to be private.
-    private static class BlockThreadTask extends TimerTask {
+    private static class BlockThreadTask implements Runnable {
         private BlockThread bt;
         public BlockThreadTask(BlockThread thread) {
             bt = thread;
@@ -37,30 +61,145 @@ public class BlockThread {
         }
     }
 
+    // Runs an activation group's blocks in its parent, when the gate is true.
+    private static class Group extends Block {
+        private BlockThread members;
+        private Bool gate;
+        private Group(BlockThread members, Bool gate, BlockThread parent) {
+            super(parent);
+            this.members = members;
+            this.gate = gate;
+        }
+        protected void handle() {
+            if(gate.getB()) {
+                members.handleGroup();
+            }
+        }
+        // Everything the members read, and the members themselves, so the
+        // parent orders the group after what it reads and before its readers.
+        protected Num[] inputNums() {
+            Block[] bs = members.registered();
+            int n = 0;
+            for(int i=0; i<bs.length; i++) {
+                n += bs[i].inputNums().length + ((bs[i] instanceof Num) ? 1
+                                                                         : 0);
+            }
+            Num[] xs = new Num[n];
+            n = 0;
+            for(int i=0; i<bs.length; i++) {
+                Num[] ins = bs[i].inputNums();
+                System.arraycopy(ins, 0, xs, n, ins.length);
+                n += ins.length;
+                if(bs[i] instanceof Num) {
+                    xs[n++] = (Num)bs[i];
+                }
+            }
+            return xs;
+        }
+        // A member that doesn't say what it reads might read anything, and so
+        // might the group.
+        boolean declaresInputs() {
+            Block[] bs = members.registered();
+            for(int i=0; i<bs.length; i++) {
+                if(!bs[i].declaresInputs()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        protected Bool[] inputBools() {
+            Block[] bs = members.registered();
+            int n = 1;
+            for(int i=0; i<bs.length; i++) {
+                n += bs[i].inputBools().length + ((bs[i] instanceof Bool) ? 1
+                                                                          : 0);
+            }
+            Bool[] ps = new Bool[n];
+            ps[0] = gate;
+            n = 1;
+            for(int i=0; i<bs.length; i++) {
+                Bool[] ins = bs[i].inputBools();
+                System.arraycopy(ins, 0, ps, n, ins.length);
+                n += ins.length;
+                if(bs[i] instanceof Bool) {
+                    ps[n++] = (Bool)bs[i];
+                }
+            }
+            return ps;
+        }
+    }
+
     /**
      * Creates a thread that must be run manually. For example, you might call
      * {@link BlockThread#run()} in your project's overrides of
      * {@link IterativeRobot#autonomousPeriodic()} and
-     * {@link IterativeRobot#teleopPeriodic()}.
+     * {@link IterativeRobot#teleopPeriodic()}. Time comes from
+     * {@link Clock#real()}.
      */
     public BlockThread() {
-        t = new Timer(); // Timer starts in constructor.
+        this(Clock.real());
+    }
+
+    /**
+     * Creates a thread that must be run manually and gets its time from the
+     * given clock. With {@link Clock#fixedStep(double)}, for example, time
+     * passes at the same rate no matter how fast the thread is run.
+     * @param clock The clock. It must not be used by any other thread.
+     */
+    public BlockThread(Clock clock) {
+        // The clock is only read in tick, so t is the same for a whole step.
+        t = clock;
         // It's generally a bad idea to pass a null thread, but we're handling
         // this block manually. Kids, don't try this at home!
         dt = NumFunc.delta(t, null);
     }
 
+    // An activation group. It shares its parent's clock and is only ever run
+    // by its Group block.
+    private BlockThread(BlockThread parent, Bool gate) {
+        this.parent = parent;
+        t = parent.t;
+        dt = parent.dt;
+        group = new Group(this, gate, parent);
+    }
+
     /**
      * Creates a thread that is automatically run periodically. It cannot be run
      * manually. (That is, calling {@link BlockThread#run()} will do nothing.)
-     * @param period Time in seconds to wait between runs.
+     * @param period Time in seconds between runs.
+     * @param mode Whether the period is measured between the starts of runs or
+     * from the end of one run to the start of the next.
+     * @param overrun What to do when a run takes longer than the period.
      */
-    private BlockThread(double period) {
+    public BlockThread(double period, PeriodicScheduler.Mode mode,
+                       PeriodicScheduler.Overrun overrun) {
         this();
         // Thread will be run automatically.
-        loop = new java.util.Timer();
+        loop = new PeriodicScheduler(period, mode, overrun,
+                                     new BlockThreadTask(this));
         // TODO: test leaking.
-        loop.schedule(new BlockThreadTask(this), 0, (long)(1000*period));
+        loop.start();
+    }
+
+    /**
+     * Creates a thread that is automatically run periodically. Runs start at
+     * a fixed rate, and runs that are missed because one took too long are
+     * skipped. It cannot be run manually. (That is, calling
+     * {@link BlockThread#run()} will do nothing.)
+     * @param period Time in seconds between runs.
+     */
+    public BlockThread(double period) {
+        this(period, PeriodicScheduler.Mode.FIXED_RATE,
+             PeriodicScheduler.Overrun.SKIP);
+    }
+
+    /**
+     * The scheduler running this thread, which keeps track of jitter and
+     * overruns.
+     * @return The scheduler, or {@code null} if this thread is run manually.
+     */
+    public PeriodicScheduler scheduler() {
+        return loop;
     }
 
     /**
@@ -84,12 +223,22 @@ public class BlockThread {
      * Timer that starts when the thread is constructed. Only useful for
      * relative measurements.
      * @return A {@link Num} whose {@link Num#get()} method returns the amount
-     * of time in seconds that has passed since the thread was initialized.
+     * of time in seconds that has passed since the thread was initialized,
+     * according to its {@link Clock}, as of the start of the current time
+     * step.
      */
     public Num t() {
         return t;
     }
 
+    /**
+     * Where this thread gets its time from.
+     * @return The thread's clock.
+     */
+    public Clock clock() {
+        return t;
+    }
+
     /**
      * The amount of time elapsed in the most recent time step.
      * @return A {@link Num} whose {@link Num#get()} method returns the amount
@@ -100,12 +249,194 @@ public class BlockThread {
         return dt;
     }
 
+    /**
+     * The number of time steps this thread has taken. Each call to
+     * {@link BlockThread#run()} (or each period, if the thread is periodic)
+     * increments this before any blocks are handled.
+     * @return The index of the current time step.
+     */
+    public int ticks() {
+        return (parent == null) ? ticks : parent.ticks();
+    }
+
+    /**
+     * An activation group: a thread whose blocks are handled as part of this
+     * one, but only in time steps when a gate is true. While the gate is
+     * false, the group costs this thread a single {@link Bool#getB()} per
+     * step, no matter how many blocks are in it. Blocks in the group see this
+     * thread's time, and are ordered with this thread's blocks as if they
+     * were in it.
+     *
+     * A group can't be run on its own; {@link BlockThread#run()} does nothing.
+     * @param gate Whether the group's blocks are handled each step. Asking
+     * for the same gate again returns the same group.
+     * @return The group, to add blocks to like any other thread.
+     */
+    public BlockThread group(Bool gate) {
+        synchronized(groups) {
+            BlockThread g = (BlockThread)groups.get(gate);
+            if(g == null) {
+                g = new BlockThread(this, gate);
+                groups.put(gate, g);
+            }
+            return g;
+        }
+    }
+
+    // The block in the parent that runs this thread, if it's a group.
+    Block groupBlock() {
+        return group;
+    }
+
+    // The thread that runs this one, if it's a group.
+    BlockThread parent() {
+        return parent;
+    }
+
+    /**
+     * Shares values computed by this thread with other threads. Everything
+     * published is copied at the end of each time step, all at once, so other
+     * threads always see values from a single step.
+     * @return This thread's {@link Publisher}.
+     */
+    public synchronized Publisher publisher() {
+        if(parent != null) {
+            return parent.publisher();
+        }
+        if(publisher == null) {
+            publisher = new Publisher();
+        }
+        return publisher;
+    }
+
+    /**
+     * Starts timing this thread's time steps and blocks, if it isn't already.
+     * Timings left over from earlier profiling are forgotten.
+     * Steps longer than the thread's period (or 20ms, the period of
+     * {@link IterativeRobot}, for a thread run manually) count as overruns.
+     * Blocks in activation groups are timed one by one too, and an activation
+     * group's profile is that of the thread running it.
+     * @return This thread's {@link Profile}.
+     */
+    public synchronized Profile profile() {
+        if(parent != null) {
+            return parent.profile();
+        }
+        if(profile == null) {
+            profile = new Profile(this, (loop == null) ? 0.02
+                                                       : loop.getPeriod());
+        }
+        return profile;
+    }
+
+    /**
+     * Stops timing this thread. The next call to {@link BlockThread#profile()}
+     * starts over.
+     */
+    public synchronized void stopProfiling() {
+        if(parent != null) {
+            parent.stopProfiling();
+            return;
+        }
+        if(profile != null) {
+            profile.stopReporting();
+        }
+        profile = null;
+    }
+
+    /**
+     * The sensors this thread reads once at the start of every time step.
+     * @return This thread's {@link SensorSnapshot}.
+     */
+    public synchronized SensorSnapshot snapshot() {
+        if(parent != null) {
+            return parent.snapshot();
+        }
+        if(snapshot == null) {
+            snapshot = new SensorSnapshot();
+        }
+        return snapshot;
+    }
+
+    // The blocks in the order they're handled.
+    Block[] scheduled() {
+        return schedule;
+    }
+
+    // The same, with each activation group's blocks after the block that
+    // runs the group.
+    Block[] scheduledWithGroups() {
+        Block[] s = schedule;
+        Vector all = new Vector();
+        for(int i=0; i<s.length; i++) {
+            all.addElement(s[i]);
+            if(s[i] instanceof Group) {
+                Block[] members = ((Group)s[i]).members.scheduledWithGroups();
+                for(int j=0; j<members.length; j++) {
+                    all.addElement(members[j]);
+                }
+            }
+        }
+        Block[] bs = new Block[all.size()];
+        all.copyInto(bs);
+        return bs;
+    }
+
+    // The profile timing this thread's blocks, if any.
+    private Profile activeProfile() {
+        return (parent != null) ? parent.activeProfile() : profile;
+    }
+
+    // Recorders are copied on write so the tick can read them without a lock.
+    // An activation group's recorders are ticked by its parent, since the
+    // group may not run every step.
+    synchronized void addRecorder(Recorder r) {
+        if(parent != null) {
+            parent.addRecorder(r);
+            return;
+        }
+        Recorder[] more = new Recorder[recorders.length + 1];
+        System.arraycopy(recorders, 0, more, 0, recorders.length);
+        more[recorders.length] = r;
+        recorders = more;
+    }
+
+    synchronized void removeRecorder(Recorder r) {
+        if(parent != null) {
+            parent.removeRecorder(r);
+            return;
+        }
+        int n = 0;
+        Recorder[] fewer = new Recorder[recorders.length];
+        for(int i=0; i<recorders.length; i++) {
+            if(recorders[i] != r) {
+                fewer[n++] = recorders[i];
+            }
+        }
+        Recorder[] exact = new Recorder[n];
+        System.arraycopy(fewer, 0, exact, 0, n);
+        recorders = exact;
+    }
+
     /**
      * Adds a {@link Block} to be handled.
      * @param b The block being added.
      */
     protected void addBlock(Block b) {
-        blocks.addElement(b);
+        synchronized(registryLock) {
+            if(registrySize == registry.length) {
+                Block[] bigger = new Block[2*registry.length];
+                System.arraycopy(registry, 0, bigger, 0, registrySize);
+                registry = bigger;
+            }
+            b.slot = registrySize;
+            registry[registrySize++] = b;
+            rescheduled = true;
+        }
+        if(parent != null) {
+            // The group's inputs have changed.
+            parent.reschedule();
+        }
     }
 
     /**
@@ -113,25 +444,185 @@ public class BlockThread {
      * @param b The block being removed.
      */
     protected void removeBlock(Block b) {
-        blocks.removeElement(b);
+        synchronized(registryLock) {
+            if(b.slot >= 0 && b.slot < registrySize && registry[b.slot] == b) {
+                registry[b.slot] = null;
+                b.slot = -1;
+                rescheduled = true;
+            }
+        }
+        if(parent != null) {
+            parent.reschedule();
+        }
+    }
+
+    /**
+     * Recomputes the order blocks are handled in. This happens automatically
+     * when blocks are added or removed, but a block whose inputs change after
+     * it's added (for example, {@link Numception#wrap(Num)}) needs this to be
+     * called.
+     */
+    public void reschedule() {
+        rescheduled = true;
+        if(parent != null) {
+            // The group's inputs may have changed too.
+            parent.reschedule();
+        }
+    }
+
+    /**
+     * Sets how many threads handle this thread's blocks. With more than one,
+     * blocks are split into groups that share no state (a drivetrain and an
+     * arm, say) and the groups are handled in parallel, with every group
+     * finished before a time step ends. Blocks in the same group are handled
+     * in the same order as they would be by one thread, so the results are
+     * identical. Blocks are only split if every one of them declares what it
+     * reads (see {@link Block#inputNums()}); otherwise they're all handled by
+     * one worker.
+     * @param workers The number of threads, including the one running this
+     * thread. One (the default) handles everything serially.
+     */
+    public synchronized void setParallelism(int workers) {
+        parallelism = Math.max(1, workers);
+        rescheduled = true;
+    }
+
+    // The blocks added so far, without rescheduling.
+    Block[] registered() {
+        synchronized(registryLock) {
+            int n = 0;
+            for(int i=0; i<registrySize; i++) {
+                if(registry[i] != null) {
+                    n++;
+                }
+            }
+            Block[] added = new Block[n];
+            n = 0;
+            for(int i=0; i<registrySize; i++) {
+                if(registry[i] != null) {
+                    added[n++] = registry[i];
+                }
+            }
+            return added;
+        }
+    }
+
+    // Squeezes out removed blocks, keeping the order they were added in, and
+    // returns a copy of what's left.
+    private Block[] compactRegistry() {
+        synchronized(registryLock) {
+            rescheduled = false;
+            int n = 0;
+            for(int i=0; i<registrySize; i++) {
+                if(registry[i] != null) {
+                    registry[n] = registry[i];
+                    registry[n].slot = n;
+                    n++;
+                }
+            }
+            for(int i=n; i<registrySize; i++) {
+                registry[i] = null;
+            }
+            registrySize = n;
+            Block[] added = new Block[n];
+            System.arraycopy(registry, 0, added, 0, n);
+            return added;
+        }
+    }
+
+    private synchronized void updatePool() {
+        if(pool != null && pool.workers() != parallelism) {
+            pool.stop();
+            pool = null;
+        }
+        if(parallelism > 1) {
+            if(pool == null) {
+                pool = new TickPool(parallelism);
+            }
+            // Once the step has started, t and dt are only ever read, so they
+            // don't tie together the blocks that use them.
+            Object[] shared = {t, dt};
+            SensorSnapshot snap = snapshot;
+            if(snap != null) {
+                // Samples are read-only during a step too.
+                Object[] samples = snap.samples();
+                Object[] more = new Object[shared.length + samples.length];
+                System.arraycopy(shared, 0, more, 0, shared.length);
+                System.arraycopy(samples, 0, more, shared.length,
+                                 samples.length);
+                shared = more;
+            }
+            pool.assign(Schedule.partition(schedule, shared, parallelism));
+        }
     }
 
     private void handleBlocks() {
+        Profile prof = profile;
+        long start = (prof == null) ? 0 : prof.now();
+        // Starting a new time step invalidates memoized values.
+        ticks++;
+        t.tick();
+        // Sensors are read after the clock, which may be what sets them.
+        SensorSnapshot snap = snapshot;
+        if(snap != null) {
+            snap.sample();
+        }
         // Handle dt before other blocks that may rely on it.
         dt.handle();
-        for(Enumeration e = blocks.elements(); e.hasMoreElements();) {
-            Block b = (Block)e.nextElement();
-            b.handle();
+        if(rescheduled) {
+            schedule = Schedule.order(compactRegistry());
+            updatePool();
+        }
+        if(pool != null) {
+            pool.tick(prof);
+        }
+        else if(prof != null) {
+            prof.handle(schedule);
+        }
+        else {
+            // Read the volatile field once; the loop itself allocates nothing
+            // and takes no locks.
+            Block[] s = schedule;
+            for(int i=0; i<s.length; i++) {
+                s[i].handle();
+            }
+        }
+        Publisher p = publisher;
+        if(p != null) {
+            p.update();
+        }
+        Recorder[] rs = recorders;
+        for(int i=0; i<rs.length; i++) {
+            rs[i].tick();
+        }
+        if(prof != null) {
+            prof.step(prof.now() - start);
+        }
+    }
+
+    // Handles a group's blocks, in its parent's time step.
+    private void handleGroup() {
+        if(rescheduled) {
+            schedule = Schedule.order(compactRegistry());
+        }
+        Profile prof = activeProfile();
+        if(prof != null) {
+            prof.handle(schedule);
+            return;
+        }
+        Block[] s = schedule;
+        for(int i=0; i<s.length; i++) {
+            s[i].handle();
         }
     }
 
     /**
      * Calls {@link Block#handle()} of each {@link Block}. Does nothing if this
-     * thread is periodic.
+     * thread is periodic or an activation group.
      */
     public void run() {
         // If the thread is not periodic, loop is null.
-        if(loop == null) {
+        if(loop == null && parent == null) {
             handleBlocks();
         }
     }
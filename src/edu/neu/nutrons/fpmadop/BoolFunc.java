@@ -9,6 +9,9 @@ import edu.wpi.first.wpilibj.buttons.Button;
  */
 public class BoolFunc {
 
+    private static final Num[] NO_NUMS = {};
+    private static final Bool[] NO_BOOLS = {};
+
     private BoolFunc() {}
 
     /**
@@ -18,11 +21,20 @@ public class BoolFunc {
         private B() {}
     }
 
-    private static class Constant implements Bool {
+    private static class Constant implements Bool, Node {
         private boolean p = false;
         private Constant(boolean p) {
             this.p = p;
         }
+        public int op() {
+            return B_CONSTANT;
+        }
+        public Num[] nums() {
+            return NO_NUMS;
+        }
+        public Bool[] bools() {
+            return NO_BOOLS;
+        }
         public boolean getB() {
             return p;
         }
@@ -38,21 +50,40 @@ public class BoolFunc {
         }
     }
 
-    private static class Not implements Bool {
+    private static class Not implements Bool, Node {
         private Bool p;
         private Not(Bool p) {
             this.p = p;
         }
+        public int op() {
+            return NOT;
+        }
+        public Num[] nums() {
+            return NO_NUMS;
+        }
+        public Bool[] bools() {
+            Bool[] ps = {p};
+            return ps;
+        }
         public boolean getB() {
             return !p.getB();
         }
     }
 
-    private static class Or implements Bool {
+    private static class Or implements Bool, Node {
         private Bool[] ps;
         private Or(Bool[] ps) {
             this.ps = ps;
         }
+        public int op() {
+            return OR;
+        }
+        public Num[] nums() {
+            return NO_NUMS;
+        }
+        public Bool[] bools() {
+            return ps;
+        }
         public boolean getB() {
             boolean ret = false;
             for(int i=0; i<ps.length; i++) {
@@ -62,11 +93,20 @@ public class BoolFunc {
         }
     }
 
-    private static class And implements Bool {
+    private static class And implements Bool, Node {
         private Bool[] ps;
         private And(Bool[] ps) {
             this.ps = ps;
         }
+        public int op() {
+            return AND;
+        }
+        public Num[] nums() {
+            return NO_NUMS;
+        }
+        public Bool[] bools() {
+            return ps;
+        }
         public boolean getB() {
             boolean ret = true;
             for(int i=0; i<ps.length; i++) {
@@ -76,76 +116,129 @@ public class BoolFunc {
         }
     }
 
-    private static class Xor implements Bool {
+    private static class Xor implements Bool, Node {
         private Bool p, q;
         private Xor(Bool p, Bool q) {
             this.p = p;
             this.q = q;
         }
+        public int op() {
+            return XOR;
+        }
+        public Num[] nums() {
+            return NO_NUMS;
+        }
+        public Bool[] bools() {
+            Bool[] ps = {p, q};
+            return ps;
+        }
         public boolean getB() {
             return p.getB() != q.getB();
         }
     }
 
-    private static class InRange implements Bool {
+    private static class InRange implements Bool, Node {
         private Num min, max, x;
         private InRange(Num min, Num max, Num x) {
             this.min = min;
             this.max = max;
             this.x = x;
         }
+        public int op() {
+            return IN_RANGE;
+        }
+        public Num[] nums() {
+            Num[] xs = {min, max, x};
+            return xs;
+        }
+        public Bool[] bools() {
+            return NO_BOOLS;
+        }
         public boolean getB() {
             double curX = x.getN();
             return min.getN() <= curX && curX <= max.getN();
         }
     }
 
-    private static class Delay extends BoolBlock {
+    private static class Memo implements Bool, Node {
         private Bool p;
-        private boolean[] pastP;
-        private int i = 0;
-        private Delay(int delay, Bool p, BlockThread thread) {
-            super(thread);
+        private BlockThread thread;
+        private int tick;
+        private boolean curP = false;
+        private Memo(Bool p, BlockThread thread) {
             this.p = p;
-            this.pastP = new boolean[delay];
-        }
-        protected void handle() {
-            pastP[i] = p.getB();
-            i = i+1 % pastP.length;
+            this.thread = (thread == null) ? BlockThread.main() : thread;
+            // Guarantees the first call evaluates p.
+            tick = this.thread.ticks() - 1;
         }
         public boolean getB() {
-            return pastP[i];
+            int now = thread.ticks();
+            if(now != tick) {
+                curP = p.getB();
+                tick = now;
+            }
+            return curP;
+        }
+        public int op() {
+            return B_MEMO;
+        }
+        public Num[] nums() {
+            return NO_NUMS;
+        }
+        public Bool[] bools() {
+            Bool[] ps = {p};
+            return ps;
         }
     }
 
-    private static class Delta extends BoolBlock {
-        private boolean lastP = false;
-        private boolean curP = false;
+    private static class Delay extends BoolBlock {
         private Bool p;
-        private Delta(Bool p, BlockThread thread) {
+        private boolean[] pastP;
+        private int i = 0;
+        private boolean out = false;
+        private Delay(int delay, Bool p, BlockThread thread) {
             super(thread);
             this.p = p;
+            this.pastP = new boolean[delay];
         }
         protected void handle() {
-            lastP = curP;
-            curP = p.getB();
+            // Read the oldest value before overwriting it, so the output is
+            // from delay steps ago whether or not this has been handled yet.
+            out = pastP[i];
+            pastP[i] = p.getB();
+            i = (i+1) % pastP.length;
+        }
+        protected Bool[] inputBools() {
+            Bool[] ps = {p};
+            return ps;
         }
         public boolean getB() {
-            return curP != lastP;
+            return out;
         }
     }
 
-    private static class Oscillator extends BoolBlock {
-        private Bool p;
+    // Never handled itself: the trigger flips the state, and readers are
+    // ordered after the trigger because that's what this reads.
+    private static class Toggle extends BoolBlock {
+        private Trigger trigger;
         private boolean state = false;
-        private Oscillator(Bool p, BlockThread thread) {
-            super(thread);
-            this.p = p;
+        private Toggle(Trigger trigger, BlockThread thread) {
+            super(null);
+            this.trigger = trigger;
+            trigger.onRise(new Runnable() {
+                public void run() {
+                    state = !state;
+                }
+            });
+            setThread(thread);
         }
-        protected void handle() {
-            if(p.getB()) {
-                state = !state;
-            }
+        BlockThread handledBy(BlockThread thread) {
+            return null;
+        }
+        protected void handle() {}
+        protected Bool[] inputBools() {
+            Bool[] ps = {trigger};
+            return ps;
         }
         public boolean getB() {
             return state;
@@ -174,6 +267,10 @@ public class BoolFunc {
                 i = 0;
             }
         }
+        protected Bool[] inputBools() {
+            Bool[] ps = {p};
+            return ps;
+        }
         public boolean getB() {
             return state;
         }
@@ -204,11 +301,46 @@ public class BoolFunc {
                 i = 0.0;
             }
         }
+        protected Num[] inputNums() {
+            Num[] xs = {inc};
+            return xs;
+        }
+        protected Bool[] inputBools() {
+            Bool[] ps = {p};
+            return ps;
+        }
         public boolean getB() {
             return state;
         }
     }
 
+    /**
+     * Builds a copy of an operator from {@link BoolFunc} with new operands.
+     * @param node An operator whose {@link Node#op()} returns a {@link Bool}.
+     * @param xs Replacements for {@code node.nums()}.
+     * @param ps Replacements for {@code node.bools()}.
+     * @return The new operator.
+     */
+    static Bool rebuild(Node node, Num[] xs, Bool[] ps) {
+        switch(node.op()) {
+            case Node.NOT:
+                return not(ps[0]);
+            case Node.OR:
+                return or(ps);
+            case Node.AND:
+                return and(ps);
+            case Node.XOR:
+                return xor(ps[0], ps[1]);
+            case Node.IN_RANGE:
+                return inRange(xs[0], xs[1], xs[2]);
+            case Node.B_MEMO:
+                return memo(ps[0], ((Memo)node).thread);
+            default:
+                // Constants have no operands to replace.
+                return (Bool)node;
+        }
+    }
+
     /**
      * Does nothing. This exists for completeness.
      * @param p A boolean.
@@ -456,6 +588,139 @@ public class BoolFunc {
         return inRange(-NumFunc.EPSILON, NumFunc.EPSILON, NumFunc.diff(x,y));
     }
 
+    /**
+     * Evaluates a boolean at most once per time step. Useful when an expensive
+     * {@link Bool} is shared by several other booleans.
+     * @param p A boolean.
+     * @param thread The {@link BlockThread} whose time steps determine when
+     * {@code p} is reevaluated, or {@code null} for
+     * {@link BlockThread#main()}.
+     * @return A {@link Bool} whose {@link Bool#getB()} method returns the value
+     * of {@code p.getB()} from the first time it was called during the current
+     * time step of the given thread. It keeps no lock, so it must only be
+     * read from that thread, by its blocks or while it isn't running.
+     */
+    public static Bool memo(Bool p, BlockThread thread) {
+        return new Memo(p, thread);
+    }
+
+    /**
+     * Evaluates a boolean at most once per time step. Useful when an expensive
+     * {@link Bool} is shared by several other booleans.
+     * @param p A boolean.
+     * @return A {@link Bool} whose {@link Bool#getB()} method returns the value
+     * of {@code p.getB()} from the first time it was called during the current
+     * time step of {@link BlockThread#main()}. It must only be read from that
+     * thread.
+     */
+    public static Bool memo(Bool p) {
+        return memo(p, BlockThread.main());
+    }
+
+    /**
+     * Copies a graph so that each of its operators is evaluated at most once
+     * per time step, without wrapping each one by hand with
+     * {@link BoolFunc#memo(Bool, BlockThread)}. Every operator from
+     * {@link NumFunc} and {@link BoolFunc} that is read by more than one other
+     * operator, and the top of the graph, is wrapped in a memo; the rest are
+     * only ever evaluated by their one reader. Use the copy in place of the
+     * original. Blocks and sensors are left as they are.
+     * @param p A boolean.
+     * @param thread The {@link BlockThread} whose time steps determine when
+     * operators are reevaluated, or {@code null} for
+     * {@link BlockThread#main()}.
+     * @return A {@link Bool} whose {@link Bool#getB()} method returns the same
+     * value as {@code p.getB()} did the first time it was called during the
+     * current time step of the given thread. Like a memo, it must only be read
+     * from that thread.
+     */
+    public static Bool memoize(Bool p, BlockThread thread) {
+        return new Memoizer(thread).memoize(p);
+    }
+
+    /**
+     * Copies a graph so that each of its operators is evaluated at most once
+     * per time step of {@link BlockThread#main()}. See
+     * {@link BoolFunc#memoize(Bool, BlockThread)}.
+     * @param p A boolean.
+     * @return An equivalent {@link Bool}. It must only be read from the main
+     * thread.
+     */
+    public static Bool memoize(Bool p) {
+        return memoize(p, BlockThread.main());
+    }
+
+    /**
+     * Simplifies a boolean without changing its value. Subexpressions made
+     * only of constants are replaced by a single constant, and identities such
+     * as {@code p && true} and double negation are removed. Blocks and their
+     * inputs are left as they are.
+     * @param p A boolean.
+     * @return A {@link Bool} whose {@link Bool#getB()} method always returns
+     * the same value as {@code p.getB()}.
+     */
+    public static Bool optimize(Bool p) {
+        return new Optimizer().optimize(p);
+    }
+
+    /**
+     * Compiles a boolean into a flat program that is evaluated once per time
+     * step. Operators from {@link NumFunc} and {@link BoolFunc} are inlined
+     * into the program, and everything else (sensors, blocks, etc.) is read
+     * once per step.
+     * @param p A boolean.
+     * @param thread The {@link BlockThread} which runs the program.
+     * @return A {@link Bool} whose {@link Bool#getB()} method returns the value
+     * {@code p.getB()} had when the program last ran. It is a {@link Block} in
+     * the given thread.
+     */
+    public static Bool compile(Bool p, BlockThread thread) {
+        return Program.compile(p, thread);
+    }
+
+    /**
+     * Compiles a boolean into a flat program that is evaluated once per time
+     * step. Operators from {@link NumFunc} and {@link BoolFunc} are inlined
+     * into the program, and everything else (sensors, blocks, etc.) is read
+     * once per step.
+     * @param p A boolean.
+     * @return A {@link Bool} whose {@link Bool#getB()} method returns the value
+     * {@code p.getB()} had when the program last ran. It is a {@link Block} in
+     * {@link BlockThread#main()}.
+     */
+    public static Bool compile(Bool p) {
+        return compile(p, BlockThread.main());
+    }
+
+    /**
+     * Like {@link BoolFunc#compile(Bool, BlockThread)}, but only recomputes the
+     * operators whose inputs have changed since the last time step. Every
+     * sensor, block, etc. in the boolean is still read once per step to see
+     * whether it has changed. Best for large graphs whose inputs are mostly
+     * steady.
+     * @param p A boolean.
+     * @param thread The {@link BlockThread} which runs the program.
+     * @return A {@link Bool} whose {@link Bool#getB()} method returns the value
+     * {@code p.getB()} had when the program last ran. It is a {@link Block} in
+     * the given thread.
+     */
+    public static Bool incremental(Bool p, BlockThread thread) {
+        return Incremental.compile(p, thread);
+    }
+
+    /**
+     * Like {@link BoolFunc#compile(Bool)}, but only recomputes the operators
+     * whose inputs have changed since the last time step. See
+     * {@link BoolFunc#incremental(Bool, BlockThread)}.
+     * @param p A boolean.
+     * @return A {@link Bool} whose {@link Bool#getB()} method returns the value
+     * {@code p.getB()} had when the program last ran. It is a {@link Block} in
+     * {@link BlockThread#main()}.
+     */
+    public static Bool incremental(Bool p) {
+        return incremental(p, BlockThread.main());
+    }
+
     /**
      * A {@link Bool} as it appeared a number of time steps ago. All values
      * before initialization are assumed to be false.
@@ -495,7 +760,7 @@ public class BoolFunc {
      * in the given thread.
      */
     public static BoolBlock delta(Bool p, BlockThread thread) {
-        return new Delta(p, thread);
+        return Trigger.of(p, thread);
     }
 
     /**
@@ -627,7 +892,7 @@ public class BoolFunc {
      */
     public static Bool pulseTrigger(boolean defaultState, Bool p,
                                     BlockThread thread) {
-        return and(delta(p, thread), xor(defaultState, p));
+        return and(Trigger.of(p, thread), xor(defaultState, p));
     }
 
     /**
@@ -653,7 +918,7 @@ public class BoolFunc {
      * {@code p}.) It is a {@link Block} in the given thread.
      */
     public static BoolBlock toggle(Bool p, BlockThread thread) {
-        return new Oscillator(pulseTrigger(false, p, thread), thread);
+        return new Toggle(Trigger.of(p, thread), thread);
     }
 
     /**
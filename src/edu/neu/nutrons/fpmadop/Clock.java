@@ -0,0 +1,112 @@
+package edu.neu.nutrons.fpmadop;
+
+import edu.neu.nutrons.fpmadop.hal.Hal;
+
+/**
+ * Where a {@link BlockThread} gets its time from. The thread calls
+ * {@link Clock#tick()} at the start of every time step, and
+ * {@link Num#getN()} returns the time in seconds as of the latest tick, so
+ * every block sees the same time for the whole step.
+ *
+ * {@link Clock#real()} follows the robot's clock. {@link Clock#fixedStep(double)}
+ * and {@link Clock#scripted(double[])} don't look at any clock at all, so a
+ * thread using them can be run as fast as possible and gives identical results
+ * every time. Each clock should be used by only one thread.
+ *
+ * @author Ziv
+ */
+public abstract class Clock implements Num {
+
+    private static class Real extends Clock {
+        private Hal hal;
+        private long start;
+        private double now = 0.0;
+        private Real() {
+            hal = Hal.get();
+            start = hal.micros();
+        }
+        protected void tick() {
+            now = (hal.micros() - start) / 1e6;
+        }
+        public double getN() {
+            return now;
+        }
+    }
+
+    private static class FixedStep extends Clock {
+        private double step;
+        private long ticks = 0;
+        private double now = 0.0;
+        private FixedStep(double step) {
+            this.step = step;
+        }
+        protected void tick() {
+            // Multiplying instead of adding keeps rounding error from building
+            // up over long runs.
+            ticks++;
+            now = ticks*step;
+        }
+        public double getN() {
+            return now;
+        }
+    }
+
+    private static class Scripted extends Clock {
+        private double[] times;
+        private int i = -1;
+        private double now = 0.0;
+        private Scripted(double[] times) {
+            this.times = times;
+        }
+        protected void tick() {
+            if(i < times.length - 1) {
+                i++;
+                now = times[i];
+            }
+        }
+        public double getN() {
+            return now;
+        }
+    }
+
+    /**
+     * Creates a clock. Subclasses must start at zero.
+     */
+    protected Clock() {}
+
+    /**
+     * Advances the clock. Called by the owning {@link BlockThread} at the
+     * start of each time step, before any block is handled.
+     */
+    protected abstract void tick();
+
+    /**
+     * A clock that follows the robot's clock, as given by the current
+     * {@link Hal}, starting from when it's created.
+     * @return The clock.
+     */
+    public static Clock real() {
+        return new Real();
+    }
+
+    /**
+     * A clock that moves forward by the same amount every time step, no
+     * matter how much time really passed.
+     * @param step The length of each time step in seconds.
+     * @return The clock.
+     */
+    public static Clock fixedStep(double step) {
+        return new FixedStep(step);
+    }
+
+    /**
+     * A clock that reads from a list of times, one per time step. After the
+     * last time, the clock stops.
+     * @param times The time in seconds at each time step, starting with the
+     * first.
+     * @return The clock.
+     */
+    public static Clock scripted(double[] times) {
+        return new Scripted(times);
+    }
+}
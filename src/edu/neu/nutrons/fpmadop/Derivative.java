@@ -0,0 +1,88 @@
+package edu.neu.nutrons.fpmadop;
+
+/**
+ * The derivative of a {@link Num} with respect to time, in a single block.
+ * The derivative is the change in value over the last few time steps divided
+ * by the time they took, which smooths out noise at the cost of lagging
+ * behind by about half that many steps. With a window of one step, it's the
+ * change since the previous step divided by the step's length.
+ *
+ * The derivative is zero until there are two values to compare. If no time
+ * has passed over the window, the previous derivative is kept.
+ *
+ * @author Ziv
+ */
+public class Derivative extends NumBlock {
+
+    private Num x;
+    private Num t;
+    private double[] xs;
+    private double[] ts;
+    // Where the next value goes, which is also the oldest value once the
+    // window is full.
+    private int head = 0;
+    private int count = 0;
+    private double derivative = 0.0;
+
+    /**
+     * Creates a derivative that is smoothed over a number of time steps.
+     * @param length How many steps back to compare the current value with.
+     * @param x The number to differentiate.
+     * @param thread The {@link BlockThread} which determines how frequently
+     * samples are taken.
+     */
+    public Derivative(int length, Num x, BlockThread thread) {
+        super(thread);
+        if(length < 1) {
+            throw new IllegalArgumentException("Derivative window must be at "
+                                               + "least 1");
+        }
+        this.x = x;
+        t = thread.t();
+        xs = new double[length];
+        ts = new double[length];
+    }
+
+    /**
+     * Creates a derivative over a single time step.
+     * @param x The number to differentiate.
+     * @param thread The {@link BlockThread} which determines how frequently
+     * samples are taken.
+     */
+    public Derivative(Num x, BlockThread thread) {
+        this(1, x, thread);
+    }
+
+    protected void handle() {
+        double v = x.getN();
+        double now = t.getN();
+        if(count > 0) {
+            int oldest = (count < xs.length) ? 0 : head;
+            double span = now - ts[oldest];
+            if(span != 0.0) {
+                derivative = (v - xs[oldest]) / span;
+            }
+        }
+        xs[head] = v;
+        ts[head] = now;
+        head = (head + 1) % xs.length;
+        if(count < xs.length) {
+            count++;
+        }
+    }
+
+    protected Num[] inputNums() {
+        Num[] xs = {x};
+        return xs;
+    }
+
+    public double getN() {
+        return derivative;
+    }
+
+    public void reset() {
+        head = 0;
+        count = 0;
+        derivative = 0.0;
+    }
+}
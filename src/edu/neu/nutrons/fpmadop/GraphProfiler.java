@@ -0,0 +1,344 @@
+package edu.neu.nutrons.fpmadop;
+
+import edu.neu.nutrons.fpmadop.hal.Hal;
+import java.io.PrintStream;
+import java.util.Hashtable;
+
+/**
+ * Finds out which parts of a graph of {@link NumFunc} and {@link BoolFunc}
+ * operators take the most time to evaluate. {@link GraphProfiler#instrument(Num)}
+ * copies a graph with every operator and leaf wrapped in a probe, keeping
+ * shared operands shared. Use the copy in place of the original. Each probe
+ * times its evaluation and counts calls, separately for every path from the
+ * top of the graph it's reached by, so the results form a call tree:
+ * inclusive time counts everything below a node, and exclusive time only the
+ * node itself.
+ *
+ * The results can be written as folded stacks, one line per path with its
+ * exclusive time, which flame graph tools read directly.
+ *
+ * Times come from the clock of the current {@link Hal}, in whole
+ * microseconds, which is much coarser than a single operator. A probe's own
+ * cost would also show up in its times and, as a bias, in its parent's, so
+ * the profiler measures that cost once when it's created, by timing a probe
+ * around a leaf that does nothing, and subtracts it from every result. What
+ * remains is still rounded to whole microseconds per evaluation: totals only
+ * come out right when evaluations don't line up with the clock's ticks, and
+ * anything well under a microsecond per call is a rough estimate. Probes must
+ * only be evaluated by one thread at a time.
+ *
+ * @author Ziv
+ */
+public class GraphProfiler {
+
+    // Enough probe calls to take a few milliseconds.
+    private static final int CALIBRATION_CALLS = 20000;
+
+    private static final String[] OP_NAMES = {
+        "constant", "sum", "prod", "diff", "quot", "boolToNum", "limit",
+        "deadband", "max", "min", "numMux", "memo", "constant", "not", "or",
+        "and", "xor", "inRange", "memo",
+    };
+
+    // A node in the call tree: one probe reached by one path.
+    private static class Context {
+        private String name;
+        private Context parent;
+        private Probe probe;
+        private Context[] children = new Context[0];
+        private long calls = 0;
+        private long inclusive = 0;
+        private long childInclusive = 0;
+        private Context(String name, Context parent, Probe probe) {
+            this.name = name;
+            this.parent = parent;
+            this.probe = probe;
+        }
+        private Context child(Probe p) {
+            for(int i=0; i<children.length; i++) {
+                if(children[i].probe == p) {
+                    return children[i];
+                }
+            }
+            // Only happens the first time a path is taken.
+            Context c = new Context(p.name, this, p);
+            Context[] more = new Context[children.length + 1];
+            System.arraycopy(children, 0, more, 0, children.length);
+            more[children.length] = c;
+            children = more;
+            return c;
+        }
+    }
+
+    private abstract class Probe {
+        private String name;
+        private Probe(String name) {
+            this.name = name;
+        }
+        // Returns the context to pass to leave.
+        Context enter() {
+            Context c = current.child(this);
+            current = c;
+            return c;
+        }
+        void leave(Context c, long micros) {
+            current = c.parent;
+            c.calls++;
+            c.inclusive += micros;
+            c.parent.childInclusive += micros;
+        }
+    }
+
+    private class NumProbe extends Probe implements Num {
+        private Num x;
+        private NumProbe(String name, Num x) {
+            super(name);
+            this.x = x;
+        }
+        public double getN() {
+            Context c = enter();
+            long start = hal.micros();
+            try {
+                return x.getN();
+            }
+            finally {
+                leave(c, hal.micros() - start);
+            }
+        }
+    }
+
+    private class BoolProbe extends Probe implements Bool {
+        private Bool p;
+        private BoolProbe(String name, Bool p) {
+            super(name);
+            this.p = p;
+        }
+        public boolean getB() {
+            Context c = enter();
+            long start = hal.micros();
+            try {
+                return p.getB();
+            }
+            finally {
+                leave(c, hal.micros() - start);
+            }
+        }
+    }
+
+    private BlockThread thread;
+    private Hal hal = Hal.get();
+    // Microseconds per call that a probe records for itself, and that it
+    // adds to whatever evaluates it.
+    private double inner = 0.0;
+    private double outer = 0.0;
+    private double calibrationSum;
+    private Context root = new Context("root", null, null);
+    private Context current = root;
+    private int startTick;
+    private int ids = 0;
+    private Hashtable nums = new Hashtable();
+    private Hashtable bools = new Hashtable();
+
+    /**
+     * Creates a profiler and measures the cost of a probe, which takes a few
+     * milliseconds.
+     * @param thread The thread whose time steps call counts are divided by.
+     */
+    public GraphProfiler(BlockThread thread) {
+        this.thread = thread;
+        startTick = thread.ticks();
+        calibrate();
+    }
+
+    /**
+     * Creates a profiler for graphs evaluated by the main thread.
+     */
+    public GraphProfiler() {
+        this(BlockThread.main());
+    }
+
+    private void calibrate() {
+        Num leaf = new Num() {
+            public double getN() {
+                return 0.0;
+            }
+        };
+        NumProbe probe = new NumProbe("calibration", leaf);
+        Context scratch = new Context("calibration", null, null);
+        current = scratch;
+        double sum = 0.0;
+        long start = hal.micros();
+        for(int i=0; i<CALIBRATION_CALLS; i++) {
+            sum += leaf.getN();
+        }
+        long bare = hal.micros() - start;
+        start = hal.micros();
+        for(int i=0; i<CALIBRATION_CALLS; i++) {
+            sum += probe.getN();
+        }
+        long probed = hal.micros() - start;
+        current = root;
+        inner = (double)scratch.children[0].inclusive / CALIBRATION_CALLS;
+        outer = Math.max(inner, (double)(probed - bare) / CALIBRATION_CALLS);
+        // So the loops can't be optimized away.
+        calibrationSum = sum;
+    }
+
+    // Time spent at the end of a path, without any probe's own cost.
+    private double exclusive(Context c) {
+        double x = c.inclusive - c.childInclusive - c.calls*inner;
+        for(int i=0; i<c.children.length; i++) {
+            x -= c.children[i].calls*(outer - inner);
+        }
+        return Math.max(0.0, x);
+    }
+
+    private double inclusive(Context c) {
+        double x = exclusive(c);
+        for(int i=0; i<c.children.length; i++) {
+            x += inclusive(c.children[i]);
+        }
+        return x;
+    }
+
+    private String name(Object o) {
+        ids++;
+        if(o instanceof Node) {
+            return OP_NAMES[((Node)o).op()] + "#" + ids;
+        }
+        String name = o.getClass().getName();
+        return name.substring(name.lastIndexOf('.') + 1) + "#" + ids;
+    }
+
+    /**
+     * Copies a graph with probes around every operator and leaf.
+     * @param x The top of the graph.
+     * @return An equivalent graph that records where its time goes.
+     */
+    public Num instrument(Num x) {
+        Num done = (Num)nums.get(x);
+        if(done != null) {
+            return done;
+        }
+        if(x instanceof Node && ((Node)x).op() == Node.CONSTANT) {
+            done = x;
+        }
+        else if(x instanceof Node) {
+            Node node = (Node)x;
+            done = new NumProbe(name(x),
+                                NumFunc.rebuild(node, instrument(node.nums()),
+                                                instrument(node.bools())));
+        }
+        else {
+            done = new NumProbe(name(x), x);
+        }
+        nums.put(x, done);
+        return done;
+    }
+
+    /**
+     * Copies a graph with probes around every operator and leaf.
+     * @param p The top of the graph.
+     * @return An equivalent graph that records where its time goes.
+     */
+    public Bool instrument(Bool p) {
+        Bool done = (Bool)bools.get(p);
+        if(done != null) {
+            return done;
+        }
+        if(p instanceof Node && ((Node)p).op() == Node.B_CONSTANT) {
+            done = p;
+        }
+        else if(p instanceof Node) {
+            Node node = (Node)p;
+            done = new BoolProbe(name(p),
+                                 BoolFunc.rebuild(node, instrument(node.nums()),
+                                                  instrument(node.bools())));
+        }
+        else {
+            done = new BoolProbe(name(p), p);
+        }
+        bools.put(p, done);
+        return done;
+    }
+
+    private Num[] instrument(Num[] xs) {
+        Num[] ys = new Num[xs.length];
+        for(int i=0; i<xs.length; i++) {
+            ys[i] = instrument(xs[i]);
+        }
+        return ys;
+    }
+
+    private Bool[] instrument(Bool[] ps) {
+        Bool[] qs = new Bool[ps.length];
+        for(int i=0; i<ps.length; i++) {
+            qs[i] = instrument(ps[i]);
+        }
+        return qs;
+    }
+
+    /**
+     * Forgets all times and counts, keeping the probes.
+     */
+    public void reset() {
+        reset(root);
+        startTick = thread.ticks();
+    }
+
+    private static void reset(Context c) {
+        c.calls = 0;
+        c.inclusive = 0;
+        c.childInclusive = 0;
+        for(int i=0; i<c.children.length; i++) {
+            reset(c.children[i]);
+        }
+    }
+
+    /**
+     * Writes the call tree as folded stacks: each line is a path of probe
+     * names separated by semicolons, then a space and the exclusive time in
+     * microseconds spent at the end of that path, rounded.
+     * @param out Where to write.
+     */
+    public void writeFolded(PrintStream out) {
+        for(int i=0; i<root.children.length; i++) {
+            writeFolded(out, root.children[i], root.children[i].name);
+        }
+    }
+
+    private void writeFolded(PrintStream out, Context c, String path) {
+        out.println(path + " " + (long)(exclusive(c) + 0.5));
+        for(int i=0; i<c.children.length; i++) {
+            writeFolded(out, c.children[i], path + ";" + c.children[i].name);
+        }
+    }
+
+    /**
+     * A readable table of every path in the call tree, indented by depth,
+     * with calls per time step and inclusive and exclusive microseconds per
+     * time step.
+     * @return The table.
+     */
+    public String summary() {
+        StringBuffer s = new StringBuffer();
+        int steps = Math.max(1, thread.ticks() - startTick);
+        s.append("name calls/step inclusive/step exclusive/step\n");
+        for(int i=0; i<root.children.length; i++) {
+            summary(s, root.children[i], 0, steps);
+        }
+        return s.toString();
+    }
+
+    private void summary(StringBuffer s, Context c, int depth, int steps) {
+        for(int i=0; i<depth; i++) {
+            s.append("  ");
+        }
+        s.append(c.name).append(' ').append((double)c.calls / steps);
+        s.append(' ').append(inclusive(c) / steps);
+        s.append(' ').append(exclusive(c) / steps).append('\n');
+        for(int i=0; i<c.children.length; i++) {
+            summary(s, c.children[i], depth + 1, steps);
+        }
+    }
+}
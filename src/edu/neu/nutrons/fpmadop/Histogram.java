@@ -0,0 +1,180 @@
+package edu.neu.nutrons.fpmadop;
+
+/**
+ * Counts how often durations (or any non-negative integers) fall into each of
+ * a fixed set of buckets. Buckets are log-linear: every power of two is split
+ * into {@link Histogram#SUB_BUCKETS} equal parts, so any recorded value is
+ * known to within about 12% no matter how large it is, using a few hundred
+ * counters in total. Recording a value takes constant time and never
+ * allocates.
+ *
+ * A histogram is not synchronized. It should be written by one thread; reads
+ * from other threads may be slightly out of date.
+ *
+ * @author Ziv
+ */
+public class Histogram {
+
+    /**
+     * How many buckets each power of two is split into.
+     */
+    public static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+    // Values below 2*SUB_BUCKETS get one bucket each; after that, each power
+    // of two up to 2^62 gets SUB_BUCKETS buckets.
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BITS);
+
+    private long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long total = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /**
+     * Creates an empty histogram.
+     */
+    public Histogram() {}
+
+    private static int bucket(long x) {
+        if(x < 2*SUB_BUCKETS) {
+            return (int)x;
+        }
+        // Position of the highest set bit, so 2^top <= x < 2^(top+1).
+        int top = 63;
+        while((x >>> top) == 0) {
+            top--;
+        }
+        int sub = (int)(x >>> (top - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (top - SUB_BITS + 1)*SUB_BUCKETS + sub;
+    }
+
+    // The largest value that falls in a bucket.
+    private static long highest(int bucket) {
+        if(bucket < 2*SUB_BUCKETS) {
+            return bucket;
+        }
+        int top = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long low = (1L << top) + ((long)sub << (top - SUB_BITS));
+        return low + (1L << (top - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Counts a value.
+     * @param x The value. Negative values are counted as zero.
+     */
+    public void record(long x) {
+        if(x < 0) {
+            x = 0;
+        }
+        counts[bucket(x)]++;
+        count++;
+        total += x;
+        if(x < min) {
+            min = x;
+        }
+        if(x > max) {
+            max = x;
+        }
+    }
+
+    /**
+     * How many values have been counted.
+     * @return The number of values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The sum of all values counted.
+     * @return The sum.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * The smallest value counted.
+     * @return The smallest value, or zero if nothing has been counted.
+     */
+    public long getMin() {
+        return (count == 0) ? 0 : min;
+    }
+
+    /**
+     * The largest value counted.
+     * @return The largest value, or zero if nothing has been counted.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * The average value counted.
+     * @return The mean, or zero if nothing has been counted.
+     */
+    public double getMean() {
+        return (count == 0) ? 0.0 : (double)total / count;
+    }
+
+    /**
+     * A value that a given fraction of the counted values are at most. Exact
+     * up to the width of a bucket.
+     * @param fraction Between 0 and 1. For example, 0.99 gives the 99th
+     * percentile.
+     * @return The value, or zero if nothing has been counted.
+     */
+    public long getPercentile(double fraction) {
+        if(count == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(fraction * count);
+        long seen = 0;
+        for(int i=0; i<BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= rank && seen > 0) {
+                return Math.min(highest(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * How many values were greater than a limit. Exact up to the width of a
+     * bucket.
+     * @param limit The limit.
+     * @return The number of values in buckets above the one holding
+     * {@code limit}.
+     */
+    public long getCountAbove(long limit) {
+        long above = 0;
+        for(int i=bucket(Math.max(0, limit))+1; i<BUCKETS; i++) {
+            above += counts[i];
+        }
+        return above;
+    }
+
+    /**
+     * Forgets every value counted.
+     */
+    public void reset() {
+        for(int i=0; i<BUCKETS; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        total = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * A one-line summary.
+     * @return The count, mean, median, 99th percentile and maximum.
+     */
+    public String toString() {
+        return "n=" + count + " mean=" + ((long)getMean()) + " p50="
+               + getPercentile(0.5) + " p99=" + getPercentile(0.99) + " max="
+               + max;
+    }
+}
@@ -0,0 +1,223 @@
+package edu.neu.nutrons.fpmadop;
+
+/**
+ * A compiled {@link Program} that only recomputes what has changed. Every time
+ * step, each leaf (a sensor, a {@link Block}, etc.) is read once and compared
+ * with its value from the previous step. Only the operators downstream of a
+ * leaf that changed are run again, and an operator whose result comes out the
+ * same doesn't wake up the operators that read it. While the robot is idle or
+ * holding steady, most steps run almost nothing.
+ *
+ * Values are compared bit for bit, so results are always exactly the same as
+ * running the whole program.
+ *
+ * @author Ziv
+ */
+class Incremental extends Block implements Num, Bool {
+
+    private Program program;
+    // Where each operator starts in the program's code, in order. Loads
+    // aren't included; leaves are read separately.
+    private int[] starts;
+    // Whether each operator writes a boolean slot.
+    private boolean[] boolOut;
+    // For each slot, the operators that read it, as indices into starts.
+    private int[][] nReaders;
+    private int[][] bReaders;
+    // The slot each leaf is loaded into.
+    private int[] numSlots;
+    private int[] boolSlots;
+    private boolean[] dirty;
+    private int firstDirty;
+    private int lastDirty;
+    private boolean started = false;
+
+    private Incremental(Program program, BlockThread thread) {
+        super(thread);
+        this.program = program;
+        int[] code = program.code;
+        numSlots = new int[program.numLeaves.length];
+        boolSlots = new int[program.boolLeaves.length];
+        int[] nCounts = new int[program.ns.length];
+        int[] bCounts = new int[program.bs.length];
+        int ops = 0;
+        // First count operators and readers, then fill them in.
+        for(int pc=0; pc<code.length; pc=next(code, pc)) {
+            int op = code[pc];
+            if(op == Program.LOAD_N) {
+                numSlots[code[pc+3]] = code[pc+1];
+            }
+            else if(op == Program.LOAD_B) {
+                boolSlots[code[pc+3]] = code[pc+1];
+            }
+            else {
+                int[] counts = readsBools(op) ? bCounts : nCounts;
+                for(int i=0; i<code[pc+2]; i++) {
+                    counts[code[pc+3+i]]++;
+                }
+                ops++;
+            }
+        }
+        starts = new int[ops];
+        boolOut = new boolean[ops];
+        dirty = new boolean[ops];
+        nReaders = readers(nCounts);
+        bReaders = readers(bCounts);
+        int k = 0;
+        for(int pc=0; pc<code.length; pc=next(code, pc)) {
+            int op = code[pc];
+            if(op == Program.LOAD_N || op == Program.LOAD_B) {
+                continue;
+            }
+            starts[k] = pc;
+            boolOut[k] = writesBool(op);
+            int[] counts = readsBools(op) ? bCounts : nCounts;
+            int[][] readers = readsBools(op) ? bReaders : nReaders;
+            for(int i=0; i<code[pc+2]; i++) {
+                int slot = code[pc+3+i];
+                // An operator can read the same slot more than once, which
+                // just marks it twice.
+                readers[slot][--counts[slot]] = k;
+            }
+            k++;
+        }
+        firstDirty = ops;
+        lastDirty = -1;
+    }
+
+    /**
+     * Compiles a graph whose output is a number.
+     * @param x The root of the graph.
+     * @param thread The {@link BlockThread} that runs the program.
+     * @return The compiled program, which is a {@link Num}.
+     */
+    static Incremental compile(Num x, BlockThread thread) {
+        return new Incremental(Program.compile(x, null), thread);
+    }
+
+    /**
+     * Compiles a graph whose output is a boolean.
+     * @param p The root of the graph.
+     * @param thread The {@link BlockThread} that runs the program.
+     * @return The compiled program, which is a {@link Bool}.
+     */
+    static Incremental compile(Bool p, BlockThread thread) {
+        return new Incremental(Program.compile(p, null), thread);
+    }
+
+    private static int next(int[] code, int pc) {
+        return pc + 3 + code[pc+2];
+    }
+
+    private static boolean readsBools(int op) {
+        return op == Node.BOOL_TO_NUM || op == Node.NOT || op == Node.OR
+               || op == Node.AND || op == Node.XOR;
+    }
+
+    private static boolean writesBool(int op) {
+        return op == Node.NOT || op == Node.OR || op == Node.AND
+               || op == Node.XOR || op == Node.IN_RANGE;
+    }
+
+    private static int[][] readers(int[] counts) {
+        int[][] readers = new int[counts.length][];
+        for(int s=0; s<counts.length; s++) {
+            readers[s] = new int[counts[s]];
+        }
+        return readers;
+    }
+
+    private static boolean changed(double before, double after) {
+        // Bit for bit, so NaN is unchanged and -0 is a change.
+        return Double.doubleToLongBits(before)
+               != Double.doubleToLongBits(after);
+    }
+
+    private void mark(int[] readers) {
+        for(int i=0; i<readers.length; i++) {
+            int k = readers[i];
+            dirty[k] = true;
+            if(k < firstDirty) {
+                firstDirty = k;
+            }
+            if(k > lastDirty) {
+                lastDirty = k;
+            }
+        }
+    }
+
+    protected void handle() {
+        double[] ns = program.ns;
+        boolean[] bs = program.bs;
+        Num[] numLeaves = program.numLeaves;
+        Bool[] boolLeaves = program.boolLeaves;
+        for(int i=0; i<numLeaves.length; i++) {
+            int s = numSlots[i];
+            double x = numLeaves[i].getN();
+            if(!started || changed(ns[s], x)) {
+                ns[s] = x;
+                mark(nReaders[s]);
+            }
+        }
+        for(int i=0; i<boolLeaves.length; i++) {
+            int s = boolSlots[i];
+            boolean p = boolLeaves[i].getB();
+            if(!started || bs[s] != p) {
+                bs[s] = p;
+                mark(bReaders[s]);
+            }
+        }
+        if(!started) {
+            // Operators made only of constants have nothing to wake them.
+            for(int k=0; k<starts.length; k++) {
+                dirty[k] = true;
+            }
+            firstDirty = 0;
+            lastDirty = starts.length - 1;
+            started = true;
+        }
+        // Readers always come after what they read, so one pass in order
+        // reaches everything that's marked along the way.
+        int[] code = program.code;
+        for(int k=firstDirty; k<=lastDirty; k++) {
+            if(!dirty[k]) {
+                continue;
+            }
+            dirty[k] = false;
+            int pc = starts[k];
+            int dst = code[pc+1];
+            if(boolOut[k]) {
+                boolean before = bs[dst];
+                program.execute(pc);
+                if(bs[dst] != before) {
+                    mark(bReaders[dst]);
+                }
+            }
+            else {
+                double before = ns[dst];
+                program.execute(pc);
+                if(changed(before, ns[dst])) {
+                    mark(nReaders[dst]);
+                }
+            }
+        }
+        firstDirty = starts.length;
+        lastDirty = -1;
+    }
+
+    protected Num[] inputNums() {
+        return program.numLeaves;
+    }
+
+    protected Bool[] inputBools() {
+        return program.boolLeaves;
+    }
+
+    public double getN() {
+        return program.getN();
+    }
+
+    public boolean getB() {
+        return program.getB();
+    }
+}
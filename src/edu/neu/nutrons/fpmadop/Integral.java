@@ -0,0 +1,81 @@
+package edu.neu.nutrons.fpmadop;
+
+/**
+ * The integral of a {@link Num} with respect to time, in a single block. Each
+ * time step adds the current value times the step's length, using Kahan
+ * summation, so the error stays at a few rounding errors even after hours of
+ * tiny steps. The integral can be kept between limits, which stops it from
+ * winding up, and can be reset to zero.
+ *
+ * @author Ziv
+ */
+public class Integral extends NumBlock {
+
+    private Num x;
+    private Num dt;
+    private double min;
+    private double max;
+    private double sum = 0.0;
+    // What was lost to rounding in the last addition, to be added back in
+    // the next one.
+    private double lost = 0.0;
+
+    /**
+     * Creates an integral that is kept between limits.
+     * @param min The smallest value the integral may have.
+     * @param max The largest value the integral may have.
+     * @param x The number to integrate.
+     * @param thread The {@link BlockThread} which determines how frequently
+     * samples are taken.
+     */
+    public Integral(double min, double max, Num x, BlockThread thread) {
+        super(thread);
+        this.min = min;
+        this.max = max;
+        this.x = x;
+        dt = thread.dt();
+    }
+
+    /**
+     * Creates an integral with no limits.
+     * @param x The number to integrate.
+     * @param thread The {@link BlockThread} which determines how frequently
+     * samples are taken.
+     */
+    public Integral(Num x, BlockThread thread) {
+        this(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, x, thread);
+    }
+
+    protected void handle() {
+        double y = x.getN() * dt.getN() - lost;
+        double next = sum + y;
+        lost = (next - sum) - y;
+        sum = next;
+        if(sum > max) {
+            sum = max;
+            lost = 0.0;
+        }
+        else if(sum < min) {
+            sum = min;
+            lost = 0.0;
+        }
+    }
+
+    protected Num[] inputNums() {
+        Num[] xs = {x, dt};
+        return xs;
+    }
+
+    public double getN() {
+        return sum;
+    }
+
+    /**
+     * Sets the integral back to zero, or to the nearest limit if zero is
+     * outside of them.
+     */
+    public void reset() {
+        sum = Utils.limit(min, max, 0.0);
+        lost = 0.0;
+    }
+}
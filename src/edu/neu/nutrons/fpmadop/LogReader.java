@@ -0,0 +1,222 @@
+package edu.neu.nutrons.fpmadop;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a recording made by a {@link Recorder}, one record at a time. Call
+ * {@link LogReader#next()} to move to the next record, then read its columns.
+ *
+ * @author Ziv
+ */
+public class LogReader {
+
+    private DataInputStream in;
+    private String[] numNames;
+    private String[] boolNames;
+    // The current chunk, column by column. Arrays only ever grow.
+    private int[] ticks = new int[0];
+    private double[] times = new double[0];
+    private double[][] ns;
+    private boolean[][] bs;
+    private byte[] buf = new byte[0];
+    private int pos = 0;
+    private int size = 0;
+    private int i = -1;
+    private boolean ended = false;
+
+    /**
+     * Starts reading a recording.
+     * @param in The recording.
+     * @throws IOException If the stream can't be read or isn't a recording.
+     */
+    public LogReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+        if(this.in.readInt() != Recorder.MAGIC) {
+            throw new IOException("Not a recording");
+        }
+        int version = this.in.readInt();
+        if(version != Recorder.VERSION) {
+            throw new IOException("Unknown recording version " + version);
+        }
+        numNames = readNames();
+        boolNames = readNames();
+        ns = new double[numNames.length][0];
+        bs = new boolean[boolNames.length][0];
+    }
+
+    private String[] readNames() throws IOException {
+        String[] names = new String[in.readInt()];
+        for(int c=0; c<names.length; c++) {
+            names[c] = in.readUTF();
+        }
+        return names;
+    }
+
+    /**
+     * The names of the num channels, in column order.
+     * @return The names.
+     */
+    public String[] numNames() {
+        return numNames;
+    }
+
+    /**
+     * The names of the bool channels, in column order.
+     * @return The names.
+     */
+    public String[] boolNames() {
+        return boolNames;
+    }
+
+    /**
+     * The column of a num channel.
+     * @param name The channel's name.
+     * @return The column, or -1 if there's no such channel.
+     */
+    public int numColumn(String name) {
+        return indexOf(numNames, name);
+    }
+
+    /**
+     * The column of a bool channel.
+     * @param name The channel's name.
+     * @return The column, or -1 if there's no such channel.
+     */
+    public int boolColumn(String name) {
+        return indexOf(boolNames, name);
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for(int c=0; c<names.length; c++) {
+            if(names[c].equals(name)) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves to the next record.
+     * @return False if there are no more records.
+     * @throws IOException If the stream can't be read.
+     */
+    public boolean next() throws IOException {
+        if(i + 1 >= size && !readChunk()) {
+            return false;
+        }
+        i++;
+        return true;
+    }
+
+    private boolean readChunk() throws IOException {
+        if(ended) {
+            return false;
+        }
+        int n;
+        try {
+            n = in.readInt();
+        }
+        catch(EOFException e) {
+            ended = true;
+            return false;
+        }
+        if(n > ticks.length) {
+            ticks = new int[n];
+            times = new double[n];
+            for(int c=0; c<ns.length; c++) {
+                ns[c] = new double[n];
+            }
+            for(int c=0; c<bs.length; c++) {
+                bs[c] = new boolean[n];
+            }
+        }
+        // Read the whole chunk at once; a DataInputStream reads a byte at a
+        // time, and CLDC has no buffered streams.
+        int length = n*(12 + 8*ns.length) + bs.length*((n + 7) / 8);
+        if(length > buf.length) {
+            buf = new byte[length];
+        }
+        in.readFully(buf, 0, length);
+        pos = 0;
+        for(int k=0; k<n; k++) {
+            ticks[k] = getInt();
+        }
+        for(int k=0; k<n; k++) {
+            times[k] = getDouble();
+        }
+        for(int c=0; c<ns.length; c++) {
+            double[] column = ns[c];
+            for(int k=0; k<n; k++) {
+                column[k] = getDouble();
+            }
+        }
+        for(int c=0; c<bs.length; c++) {
+            boolean[] column = bs[c];
+            for(int k=0; k<n; k++) {
+                column[k] = (buf[pos + (k >> 3)] & (1 << (k & 7))) != 0;
+            }
+            pos += (n + 7) / 8;
+        }
+        size = n;
+        i = -1;
+        return n > 0 || readChunk();
+    }
+
+    private int getInt() {
+        int x = ((buf[pos] & 0xff) << 24) | ((buf[pos+1] & 0xff) << 16)
+                | ((buf[pos+2] & 0xff) << 8) | (buf[pos+3] & 0xff);
+        pos += 4;
+        return x;
+    }
+
+    private double getDouble() {
+        long high = getInt();
+        long low = getInt() & 0xffffffffL;
+        return Double.longBitsToDouble((high << 32) | low);
+    }
+
+    /**
+     * The step index of the current record.
+     * @return The value {@link BlockThread#ticks()} had.
+     */
+    public int tick() {
+        return ticks[i];
+    }
+
+    /**
+     * The time of the current record.
+     * @return The value {@link BlockThread#t()} had.
+     */
+    public double time() {
+        return times[i];
+    }
+
+    /**
+     * A number from the current record.
+     * @param column The channel's column.
+     * @return The recorded value.
+     */
+    public double num(int column) {
+        return ns[column][i];
+    }
+
+    /**
+     * A boolean from the current record.
+     * @param column The channel's column.
+     * @return The recorded value.
+     */
+    public boolean bool(int column) {
+        return bs[column][i];
+    }
+
+    /**
+     * Closes the recording.
+     * @throws IOException If the stream can't be closed.
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+}
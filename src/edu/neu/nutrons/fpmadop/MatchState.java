@@ -1,15 +1,15 @@
 package edu.neu.nutrons.fpmadop;
 
-import edu.wpi.first.wpilibj.DriverStation;
+import edu.neu.nutrons.fpmadop.hal.Hal;
 import edu.wpi.first.wpilibj.RobotBase;
 
 /**
  * Gives match time and whether the robot is in disabled, autonomous or teleop.
+ * Reads everything through the current {@link Hal}.
  */
 public class MatchState {
 
     private Mode mode = Mode.DISABLED;
-    private static RobotBase bot = null;
 
     /**
      * An enumeration of the modes the robot can be in: disabled, autonomous,
@@ -56,11 +56,12 @@ public class MatchState {
     private MatchState() {}
 
     /**
-     * Sets the robot that has it's state tracked.
+     * Sets the robot that has it's state tracked. Passed on to the current
+     * {@link Hal}; see {@link Hal#setRobot(RobotBase)}.
      * @param robot An instance of the main robot object.
      */
     public static void setRobot(RobotBase robot) {
-        bot = robot;
+        Hal.get().setRobot(robot);
     }
 
     /**
@@ -68,12 +69,7 @@ public class MatchState {
      * @return Whether or not the robot is in disabled.
      */
     public static boolean isDisabled() {
-        if(bot == null) {
-            return true;
-        }
-        else {
-            return bot.isDisabled();
-        }
+        return Hal.get().isDisabled();
     }
 
     /**
@@ -81,12 +77,7 @@ public class MatchState {
      * @return Whether or not the robot is in autonomous.
      */
     public static boolean isAuto() {
-        if(bot == null) {
-            return false;
-        }
-        else {
-            return bot.isAutonomous();
-        }
+        return Hal.get().isAuto();
     }
 
     /**
@@ -94,12 +85,7 @@ public class MatchState {
      * @return Whether or not the robot is in teleop.
      */
     public static boolean isTeleop() {
-        if(bot == null) {
-            return false;
-        }
-        else {
-            return bot.isOperatorControl();
-        }
+        return Hal.get().isTeleop();
     }
 
     /**
@@ -120,11 +106,12 @@ public class MatchState {
     }
 
     /**
-     * The amount of time since the beginning of the match. Unofficial; see
-     * {@link DriverStation#getInstance()#getMatchTime()} for details.
+     * The amount of time since the beginning of the match. Unofficial on the
+     * robot; see {@link edu.wpi.first.wpilibj.DriverStation#getMatchTime()}
+     * for details.
      * @return The amount of time passed since the beginning of the match.
      */
     public static double getMatchTime() {
-        return DriverStation.getInstance().getMatchTime();
+        return Hal.get().matchTime();
     }
 }
@@ -0,0 +1,145 @@
+package edu.neu.nutrons.fpmadop;
+
+import java.util.Hashtable;
+
+/**
+ * Copies graphs of {@link NumFunc} and {@link BoolFunc} operators so that
+ * every operator is evaluated at most once per time step. An operator read by
+ * only one other operator is evaluated once whenever its reader is, so only
+ * operators with several readers in the graph, and the top of the graph, are
+ * wrapped in a memo. Leaves (sensors, blocks, a user's own {@link Num}) are
+ * left as they are.
+ *
+ * @author Ziv
+ */
+class Memoizer {
+
+    private BlockThread thread;
+    // How many times each operator is read, by other operators or as the top
+    // of the graph.
+    private Hashtable readers = new Hashtable();
+    private Hashtable nums = new Hashtable();
+    private Hashtable bools = new Hashtable();
+
+    /**
+     * Creates a memoizer.
+     * @param thread The thread whose time steps the memos follow, or
+     * {@code null} for {@link BlockThread#main()}.
+     */
+    Memoizer(BlockThread thread) {
+        this.thread = thread;
+    }
+
+    // Whether an object is an operator worth remembering the value of.
+    private static boolean isOperator(Object o) {
+        if(!(o instanceof Node)) {
+            return false;
+        }
+        int op = ((Node)o).op();
+        return op != Node.CONSTANT && op != Node.B_CONSTANT
+               && op != Node.NUM_MEMO && op != Node.B_MEMO;
+    }
+
+    /**
+     * Memoizes a number.
+     * @param x The top of the graph.
+     * @return An equivalent number.
+     */
+    Num memoize(Num x) {
+        count(x);
+        Num done = copy(x);
+        return (isOperator(x) && !isShared(x)) ? NumFunc.memo(done, thread)
+                                               : done;
+    }
+
+    /**
+     * Memoizes a boolean.
+     * @param p The top of the graph.
+     * @return An equivalent boolean.
+     */
+    Bool memoize(Bool p) {
+        count(p);
+        Bool done = copy(p);
+        return (isOperator(p) && !isShared(p)) ? BoolFunc.memo(done, thread)
+                                               : done;
+    }
+
+    // Counts one more reader of o, and the first time, the readers of
+    // everything below it.
+    private void count(Object o) {
+        if(!(o instanceof Node)) {
+            return;
+        }
+        int[] n = (int[])readers.get(o);
+        if(n != null) {
+            n[0]++;
+            return;
+        }
+        n = new int[1];
+        n[0] = 1;
+        readers.put(o, n);
+        Node node = (Node)o;
+        Num[] xs = node.nums();
+        Bool[] ps = node.bools();
+        for(int i=0; i<xs.length; i++) {
+            count(xs[i]);
+        }
+        for(int i=0; i<ps.length; i++) {
+            count(ps[i]);
+        }
+    }
+
+    private boolean isShared(Object o) {
+        int[] n = (int[])readers.get(o);
+        return n != null && n[0] > 1;
+    }
+
+    private Num copy(Num x) {
+        if(!(x instanceof Node)) {
+            return x;
+        }
+        Num done = (Num)nums.get(x);
+        if(done == null) {
+            Node node = (Node)x;
+            done = NumFunc.rebuild(node, copy(node.nums()), copy(node.bools()));
+            if(isOperator(x) && isShared(x)) {
+                done = NumFunc.memo(done, thread);
+            }
+            nums.put(x, done);
+        }
+        return done;
+    }
+
+    private Bool copy(Bool p) {
+        if(!(p instanceof Node)) {
+            return p;
+        }
+        Bool done = (Bool)bools.get(p);
+        if(done == null) {
+            Node node = (Node)p;
+            done = BoolFunc.rebuild(node, copy(node.nums()),
+                                    copy(node.bools()));
+            if(isOperator(p) && isShared(p)) {
+                done = BoolFunc.memo(done, thread);
+            }
+            bools.put(p, done);
+        }
+        return done;
+    }
+
+    private Num[] copy(Num[] xs) {
+        Num[] ys = new Num[xs.length];
+        for(int i=0; i<xs.length; i++) {
+            ys[i] = copy(xs[i]);
+        }
+        return ys;
+    }
+
+    private Bool[] copy(Bool[] ps) {
+        Bool[] qs = new Bool[ps.length];
+        for(int i=0; i<ps.length; i++) {
+            qs[i] = copy(ps[i]);
+        }
+        return qs;
+    }
+}
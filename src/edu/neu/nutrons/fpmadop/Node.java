@@ -0,0 +1,59 @@
+package edu.neu.nutrons.fpmadop;
+
+/**
+ * A stateless operator whose structure can be inspected. The operators in
+ * {@link NumFunc} and {@link BoolFunc} that aren't {@link Block}s implement
+ * this, which lets whole graphs be analyzed and rewritten. Anything that isn't
+ * a node (a sensor, a block, a user's own {@link Num}) is treated as an opaque
+ * leaf.
+ *
+ * @author Ziv
+ */
+interface Node {
+
+    // Operators returning a Num.
+    int CONSTANT = 0;
+    int SUM = 1;
+    int PROD = 2;
+    int DIFF = 3;
+    int QUOT = 4;
+    int BOOL_TO_NUM = 5;
+    int LIMIT = 6;
+    int DEADBAND = 7;
+    int MAX = 8;
+    int MIN = 9;
+    int NUM_MUX = 10;
+    int NUM_MEMO = 11;
+
+    // Operators returning a Bool.
+    int B_CONSTANT = 12;
+    int NOT = 13;
+    int OR = 14;
+    int AND = 15;
+    int XOR = 16;
+    int IN_RANGE = 17;
+    int B_MEMO = 18;
+
+    /**
+     * Which operator this is.
+     * @return One of the operator constants above.
+     */
+    int op();
+
+    /**
+     * The numbers this operator reads, in the order its factory in
+     * {@link NumFunc} or {@link BoolFunc} takes them. For
+     * {@link Node#NUM_MUX}, the selector comes first. The array must not be
+     * modified.
+     * @return The numeric operands.
+     */
+    Num[] nums();
+
+    /**
+     * The booleans this operator reads, in the order its factory in
+     * {@link NumFunc} or {@link BoolFunc} takes them. The array must not be
+     * modified.
+     * @return The boolean operands.
+     */
+    Bool[] bools();
+}
@@ -15,6 +15,9 @@ public class NumFunc {
      */
     public static final double EPSILON = 0.00390625;
 
+    private static final Num[] NO_NUMS = {};
+    private static final Bool[] NO_BOOLS = {};
+
     private NumFunc() {}
 
     /**
@@ -24,7 +27,7 @@ public class NumFunc {
         private N() {}
     }
 
-    private static class Constant implements Num {
+    private static class Constant implements Num, Node {
         private double x = 0;
         private Constant(double x) {
             this.x = x;
@@ -32,6 +35,15 @@ public class NumFunc {
         public double getN() {
             return x;
         }
+        public int op() {
+            return CONSTANT;
+        }
+        public Num[] nums() {
+            return NO_NUMS;
+        }
+        public Bool[] bools() {
+            return NO_BOOLS;
+        }
     }
 
     private static class FromPIDSource implements Num {
@@ -44,11 +56,20 @@ public class NumFunc {
         }
     }
 
-    private static class Sum implements Num {
+    private static class Sum implements Num, Node {
         private Num[] xs;
         private Sum(Num[] xs) {
             this.xs = xs;
         }
+        public int op() {
+            return SUM;
+        }
+        public Num[] nums() {
+            return xs;
+        }
+        public Bool[] bools() {
+            return NO_BOOLS;
+        }
         public double getN() {
             double ret = 0;
             for(int i=0; i<xs.length; i++) {
@@ -58,11 +79,20 @@ public class NumFunc {
         }
     }
 
-    private static class Prod implements Num {
+    private static class Prod implements Num, Node {
         private Num[] xs;
         private Prod(Num[] xs) {
             this.xs = xs;
         }
+        public int op() {
+            return PROD;
+        }
+        public Num[] nums() {
+            return xs;
+        }
+        public Bool[] bools() {
+            return NO_BOOLS;
+        }
         public double getN() {
             double ret = 1;
             for(int i=0; i<xs.length; i++) {
@@ -72,23 +102,43 @@ public class NumFunc {
         }
     }
 
-    private static class Diff implements Num {
+    private static class Diff implements Num, Node {
         private Num x, y;
         private Diff(Num x, Num y) {
             this.x = x;
             this.y = y;
         }
+        public int op() {
+            return DIFF;
+        }
+        public Num[] nums() {
+            Num[] xs = {x, y};
+            return xs;
+        }
+        public Bool[] bools() {
+            return NO_BOOLS;
+        }
         public double getN() {
             return x.getN() - y.getN();
         }
     }
 
-    private static class Quot implements Num {
+    private static class Quot implements Num, Node {
         private Num x, y;
         private Quot(Num x, Num y) {
             this.x = x;
             this.y = y;
         }
+        public int op() {
+            return QUOT;
+        }
+        public Num[] nums() {
+            Num[] xs = {x, y};
+            return xs;
+        }
+        public Bool[] bools() {
+            return NO_BOOLS;
+        }
         public double getN() {
             double xVal = x.getN();
             double yVal = y.getN();
@@ -101,47 +151,86 @@ public class NumFunc {
         }
     }
 
-    private static class BoolToNum implements Num {
+    private static class BoolToNum implements Num, Node {
         private Bool p;
         private BoolToNum(Bool b) {
             this.p = b;
         }
+        public int op() {
+            return BOOL_TO_NUM;
+        }
+        public Num[] nums() {
+            return NO_NUMS;
+        }
+        public Bool[] bools() {
+            Bool[] ps = {p};
+            return ps;
+        }
         public double getN() {
             return p.getB() ? 1.0 : 0.0;
         }
     }
 
-    private static class Limit implements Num {
+    private static class Limit implements Num, Node {
         private Num min, max, x;
         private Limit(Num min, Num max, Num x) {
             this.min = min;
             this.max = max;
             this.x = x;
         }
+        public int op() {
+            return LIMIT;
+        }
+        public Num[] nums() {
+            Num[] xs = {min, max, x};
+            return xs;
+        }
+        public Bool[] bools() {
+            return NO_BOOLS;
+        }
         public double getN() {
             return Utils.limit(min.getN(), max.getN(), x.getN());
         }
     }
 
-    private static class Deadband implements Num {
+    private static class Deadband implements Num, Node {
         private Num center, range, x;
         private Deadband(Num center, Num range, Num x) {
             this.center = center;
             this.range = range;
             this.x = x;
         }
+        public int op() {
+            return DEADBAND;
+        }
+        public Num[] nums() {
+            Num[] xs = {center, range, x};
+            return xs;
+        }
+        public Bool[] bools() {
+            return NO_BOOLS;
+        }
         public double getN() {
             return Utils.deadband(center.getN(), range.getN(), x.getN());
         }
     }
 
-    private static class Extremum implements Num {
+    private static class Extremum implements Num, Node {
         private Num[] xs;
         private int sign = 1;
         private Extremum(boolean max, Num[] xs) {
             this.xs = xs;
             sign = max ? 1 : -1;
         }
+        public int op() {
+            return (sign > 0) ? MAX : MIN;
+        }
+        public Num[] nums() {
+            return xs;
+        }
+        public Bool[] bools() {
+            return NO_BOOLS;
+        }
         public double getN() {
             double ret = sign*Double.NEGATIVE_INFINITY;
             for(int i=0; i<xs.length; i++) {
@@ -152,30 +241,83 @@ public class NumFunc {
         }
     }
 
-    private static class NumMux extends Multiplexer implements Num {
+    private static class NumMux extends Multiplexer implements Num, Node {
+        private Num[] sxs;
         private NumMux(Num s, Num[] xs) {
             super(s, xs);
+            // Keep the selector and options together for inspection.
+            sxs = new Num[xs.length + 1];
+            sxs[0] = s;
+            System.arraycopy(xs, 0, sxs, 1, xs.length);
+        }
+        public int op() {
+            return NUM_MUX;
+        }
+        public Num[] nums() {
+            return sxs;
+        }
+        public Bool[] bools() {
+            return NO_BOOLS;
         }
         public double getN() {
             return ((Num)super.getChoice()).getN();
         }
     }
 
+    private static class Memo implements Num, Node {
+        private Num x;
+        private BlockThread thread;
+        private int tick;
+        private double curX = 0.0;
+        private Memo(Num x, BlockThread thread) {
+            this.x = x;
+            this.thread = (thread == null) ? BlockThread.main() : thread;
+            // Guarantees the first call evaluates x.
+            tick = this.thread.ticks() - 1;
+        }
+        public double getN() {
+            int now = thread.ticks();
+            if(now != tick) {
+                curX = x.getN();
+                tick = now;
+            }
+            return curX;
+        }
+        public int op() {
+            return NUM_MEMO;
+        }
+        public Num[] nums() {
+            Num[] xs = {x};
+            return xs;
+        }
+        public Bool[] bools() {
+            return NO_BOOLS;
+        }
+    }
+
     private static class Delay extends NumBlock {
         private Num x;
         private double[] pastX;
         private int i = 0;
+        private double out = 0.0;
         private Delay(int delay, Num x, BlockThread thread) {
             super(thread);
             this.x = x;
             this.pastX = new double[delay];
         }
         protected void handle() {
+            // Read the oldest value before overwriting it, so the output is
+            // from delay steps ago whether or not this has been handled yet.
+            out = pastX[i];
             pastX[i] = x.getN();
-            i = i+1 % pastX.length;
+            i = (i+1) % pastX.length;
+        }
+        protected Num[] inputNums() {
+            Num[] xs = {x};
+            return xs;
         }
         public double getN() {
-            return pastX[i];
+            return out;
         }
     }
 
@@ -191,6 +333,10 @@ public class NumFunc {
             lastX = curX;
             curX = x.getN();
         }
+        protected Num[] inputNums() {
+            Num[] xs = {x};
+            return xs;
+        }
         public double getN() {
             return curX - lastX;
         }
@@ -206,6 +352,10 @@ public class NumFunc {
         protected void handle() {
             sumX += x.getN();
         }
+        protected Num[] inputNums() {
+            Num[] xs = {x};
+            return xs;
+        }
         public double getN() {
             return sumX;
         }
@@ -214,6 +364,46 @@ public class NumFunc {
         }
     }
 
+    /**
+     * Builds a copy of an operator from {@link NumFunc} with new operands.
+     * @param node An operator whose {@link Node#op()} returns a {@link Num}.
+     * @param xs Replacements for {@code node.nums()}.
+     * @param ps Replacements for {@code node.bools()}.
+     * @return The new operator.
+     */
+    static Num rebuild(Node node, Num[] xs, Bool[] ps) {
+        switch(node.op()) {
+            case Node.SUM:
+                return sum(xs);
+            case Node.PROD:
+                return prod(xs);
+            case Node.DIFF:
+                return diff(xs[0], xs[1]);
+            case Node.QUOT:
+                return quot(xs[0], xs[1]);
+            case Node.BOOL_TO_NUM:
+                return boolToNum(ps[0]);
+            case Node.LIMIT:
+                return limit(xs[0], xs[1], xs[2]);
+            case Node.DEADBAND:
+                return deadband(xs[0], xs[1], xs[2]);
+            case Node.MAX:
+                return max(xs);
+            case Node.MIN:
+                return min(xs);
+            case Node.NUM_MUX: {
+                Num[] options = new Num[xs.length - 1];
+                System.arraycopy(xs, 1, options, 0, options.length);
+                return numMux(xs[0], options);
+            }
+            case Node.NUM_MEMO:
+                return memo(xs[0], ((Memo)node).thread);
+            default:
+                // Constants have no operands to replace.
+                return (Num)node;
+        }
+    }
+
     /**
      * Does nothing. This exists for completeness.
      * @param x A number.
@@ -540,6 +730,139 @@ public class NumFunc {
         return deadband(id(center), id(range), x);
     }
 
+    /**
+     * Evaluates a number at most once per time step. Useful when an expensive
+     * {@link Num} is shared by several other numbers.
+     * @param x A number.
+     * @param thread The {@link BlockThread} whose time steps determine when
+     * {@code x} is reevaluated, or {@code null} for
+     * {@link BlockThread#main()}.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the value
+     * of {@code x.getN()} from the first time it was called during the current
+     * time step of the given thread. It keeps no lock, so it must only be
+     * read from that thread, by its blocks or while it isn't running.
+     */
+    public static Num memo(Num x, BlockThread thread) {
+        return new Memo(x, thread);
+    }
+
+    /**
+     * Evaluates a number at most once per time step. Useful when an expensive
+     * {@link Num} is shared by several other numbers.
+     * @param x A number.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the value
+     * of {@code x.getN()} from the first time it was called during the current
+     * time step of {@link BlockThread#main()}. It must only be read from that
+     * thread.
+     */
+    public static Num memo(Num x) {
+        return memo(x, BlockThread.main());
+    }
+
+    /**
+     * Copies a graph so that each of its operators is evaluated at most once
+     * per time step, without wrapping each one by hand with
+     * {@link NumFunc#memo(Num, BlockThread)}. Every operator from
+     * {@link NumFunc} and {@link BoolFunc} that is read by more than one other
+     * operator, and the top of the graph, is wrapped in a memo; the rest are
+     * only ever evaluated by their one reader. Use the copy in place of the
+     * original. Blocks and sensors are left as they are.
+     * @param x A number.
+     * @param thread The {@link BlockThread} whose time steps determine when
+     * operators are reevaluated, or {@code null} for
+     * {@link BlockThread#main()}.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the same
+     * value as {@code x.getN()} did the first time it was called during the
+     * current time step of the given thread. Like a memo, it must only be read
+     * from that thread.
+     */
+    public static Num memoize(Num x, BlockThread thread) {
+        return new Memoizer(thread).memoize(x);
+    }
+
+    /**
+     * Copies a graph so that each of its operators is evaluated at most once
+     * per time step of {@link BlockThread#main()}. See
+     * {@link NumFunc#memoize(Num, BlockThread)}.
+     * @param x A number.
+     * @return An equivalent {@link Num}. It must only be read from the main
+     * thread.
+     */
+    public static Num memoize(Num x) {
+        return memoize(x, BlockThread.main());
+    }
+
+    /**
+     * Simplifies a number without changing its value. Subexpressions made only
+     * of constants are replaced by a single constant, and identities such as
+     * {@code x + 0}, {@code x * 1} and multiplexers with a constant selector
+     * are removed. Blocks and their inputs are left as they are.
+     * @param x A number.
+     * @return A {@link Num} whose {@link Num#getN()} method always returns the
+     * same value as {@code x.getN()}.
+     */
+    public static Num optimize(Num x) {
+        return new Optimizer().optimize(x);
+    }
+
+    /**
+     * Compiles a number into a flat program that is evaluated once per time
+     * step. Operators from {@link NumFunc} and {@link BoolFunc} are inlined
+     * into the program, and everything else (sensors, blocks, etc.) is read
+     * once per step.
+     * @param x A number.
+     * @param thread The {@link BlockThread} which runs the program.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the value
+     * {@code x.getN()} had when the program last ran. It is a {@link Block} in
+     * the given thread.
+     */
+    public static Num compile(Num x, BlockThread thread) {
+        return Program.compile(x, thread);
+    }
+
+    /**
+     * Compiles a number into a flat program that is evaluated once per time
+     * step. Operators from {@link NumFunc} and {@link BoolFunc} are inlined
+     * into the program, and everything else (sensors, blocks, etc.) is read
+     * once per step.
+     * @param x A number.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the value
+     * {@code x.getN()} had when the program last ran. It is a {@link Block} in
+     * {@link BlockThread#main()}.
+     */
+    public static Num compile(Num x) {
+        return compile(x, BlockThread.main());
+    }
+
+    /**
+     * Like {@link NumFunc#compile(Num, BlockThread)}, but only recomputes the
+     * operators whose inputs have changed since the last time step. Every
+     * sensor, block, etc. in the number is still read once per step to see
+     * whether it has changed. Best for large graphs whose inputs are mostly
+     * steady.
+     * @param x A number.
+     * @param thread The {@link BlockThread} which runs the program.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the value
+     * {@code x.getN()} had when the program last ran. It is a {@link Block} in
+     * the given thread.
+     */
+    public static Num incremental(Num x, BlockThread thread) {
+        return Incremental.compile(x, thread);
+    }
+
+    /**
+     * Like {@link NumFunc#compile(Num)}, but only recomputes the operators
+     * whose inputs have changed since the last time step. See
+     * {@link NumFunc#incremental(Num, BlockThread)}.
+     * @param x A number.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the value
+     * {@code x.getN()} had when the program last ran. It is a {@link Block} in
+     * {@link BlockThread#main()}.
+     */
+    public static Num incremental(Num x) {
+        return incremental(x, BlockThread.main());
+    }
+
     /**
      * A {@link Num} as it appeared a number of time steps ago. All values
      * before initialization are assumed to be zero.
@@ -649,11 +972,39 @@ public class NumFunc {
      * @param thread The {@link BlockThread} which determines how frequently
      * samples are taken.
      * @return A {@link Num} whose {@link Num#getN()} method returns the
-     * derivative of {@code x.getN()} with respect to time. It uses blocks in
-     * the given thread.
+     * derivative of {@code x.getN()} with respect to time. It is a
+     * {@link Block} in the given thread.
      */
     public static Num derivative(Num x, BlockThread thread) {
-        return quot(delta(x, thread), thread.dt());
+        return new Derivative(x, thread);
+    }
+
+    /**
+     * The derivative of the given {@link Num} with respect to time, smoothed
+     * over a number of time steps.
+     * @param length The number of recent steps to use.
+     * @param x A number.
+     * @param thread The {@link BlockThread} which determines how frequently
+     * samples are taken.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the change
+     * in {@code x.getN()} over the {@code length} most recent steps divided by
+     * the time they took. It is a {@link Block} in the given thread.
+     */
+    public static Num derivative(int length, Num x, BlockThread thread) {
+        return new Derivative(length, x, thread);
+    }
+
+    /**
+     * The derivative of the given {@link Num} with respect to time, smoothed
+     * over a number of time steps.
+     * @param length The number of recent steps to use.
+     * @param x A number.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the change
+     * in {@code x.getN()} over the {@code length} most recent steps divided by
+     * the time they took. It is a {@link Block} in {@link BlockThread#main()}.
+     */
+    public static Num derivative(int length, Num x) {
+        return derivative(length, x, BlockThread.main());
     }
 
     /**
@@ -677,7 +1028,7 @@ public class NumFunc {
      * given thread.
      */
     public static NumBlock integral(Num x, BlockThread thread) {
-        return accumulator(prod(x, thread.dt()), thread);
+        return new Integral(x, thread);
     }
 
     /**
@@ -691,6 +1042,38 @@ public class NumFunc {
         return integral(x, BlockThread.main());
     }
 
+    /**
+     * The integral of the given {@link Num} with respect to time, kept between
+     * limits so it can't wind up.
+     * @param min The smallest value the integral may have.
+     * @param max The largest value the integral may have.
+     * @param x A number.
+     * @param thread The {@link BlockThread} which determines how frequently
+     * samples are taken.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the
+     * integral of {@code x.getN()} with respect to time, limited to between
+     * {@code min} and {@code max}. It is a {@link Block} in the given thread.
+     */
+    public static NumBlock integral(double min, double max, Num x,
+                                    BlockThread thread) {
+        return new Integral(min, max, x, thread);
+    }
+
+    /**
+     * The integral of the given {@link Num} with respect to time, kept between
+     * limits so it can't wind up.
+     * @param min The smallest value the integral may have.
+     * @param max The largest value the integral may have.
+     * @param x A number.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the
+     * integral of {@code x.getN()} with respect to time, limited to between
+     * {@code min} and {@code max}. It is a {@link Block} in
+     * {@link BlockThread#main()}.
+     */
+    public static NumBlock integral(double min, double max, Num x) {
+        return integral(min, max, x, BlockThread.main());
+    }
+
     /**
      * The sum of the most recent values of the given {@link Num}.
      * @param length The number of recent steps to use.
@@ -702,10 +1085,7 @@ public class NumFunc {
      * blocks in the given thread.
      */
     public static Num recentAccumulator(int length, Num x, BlockThread thread) {
-        // We could implement this using integral, but by the end of a match
-        // we might be subtracting two very large doubles from eachother, which
-        // would be imprecise. Hooray for numerical stability!
-        return accumulator(diff(x, delay(length, x)), thread);
+        return new Window(length, x, Window.Stat.SUM, thread);
     }
 
     /**
@@ -717,7 +1097,7 @@ public class NumFunc {
      * blocks in {@link BlockThread#main()}.
      */
     public static Num recentAccumulator(int length, Num x) {
-        return accumulator(diff(x, delay(length, x)), BlockThread.main());
+        return recentAccumulator(length, x, BlockThread.main());
     }
 
     /**
@@ -736,8 +1116,7 @@ public class NumFunc {
     public static Num movingAverage(int length, Num x, BlockThread thread) {
         // Definite integral with respect to time over past few steps divided
         // by total elapsed time over those steps.
-        return quot(recentAccumulator(length, prod(x, thread.dt()), thread),
-                    diff(thread.t(), delay(length, thread.t())));
+        return new Window(length, x, thread.dt(), Window.Stat.MEAN, thread);
     }
 
     /**
@@ -41,14 +41,18 @@ public class Numception extends NumBlock {
     }
 
     /**
-     * Set the wrapped number. This only works if the current wrapped
-     * {@link Num} is not {@code null}. (Basically, do this exactly once.
-     * Subsequent calls will be ignored.)
+     * Set the wrapped number. This only works if no {@link Num} has been
+     * wrapped yet. (Basically, do this exactly once. Subsequent calls will be
+     * ignored.)
      * @param x A number.
      */
     public void wrap(Num x) {
-        if(this.x != null) {
+        if(this.x == null) {
             this.x = x;
+            // What this reads changed, so the handling order may have too.
+            if(handler() != null) {
+                handler().reschedule();
+            }
         }
     }
 
@@ -61,4 +65,10 @@ public class Numception extends NumBlock {
             curX = x.getN();
         }
     }
+
+    protected Num[] inputNums() {
+        Num[] xs = {x};
+        // Before wrapping, this reads nothing.
+        return (x == null) ? new Num[0] : xs;
+    }
 }
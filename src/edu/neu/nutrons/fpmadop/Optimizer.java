@@ -0,0 +1,294 @@
+package edu.neu.nutrons.fpmadop;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Rewrites graphs of {@link NumFunc} and {@link BoolFunc} operators into
+ * simpler graphs with the same value. Only rewrites that give exactly the same
+ * result are made: in particular, operands of sums and products are never
+ * reordered, since floating-point addition and multiplication aren't
+ * associative. Operands shared by several operators are optimized once and
+ * stay shared.
+ *
+ * @author Ziv
+ */
+class Optimizer {
+
+    private Hashtable nums = new Hashtable();
+    private Hashtable bools = new Hashtable();
+
+    private static boolean isConstant(Num x) {
+        return x instanceof Node && ((Node)x).op() == Node.CONSTANT;
+    }
+
+    private static boolean isConstant(Bool p) {
+        return p instanceof Node && ((Node)p).op() == Node.B_CONSTANT;
+    }
+
+    private static boolean isOp(Object o, int op) {
+        return o instanceof Node && ((Node)o).op() == op;
+    }
+
+    private static boolean isConstant(Num x, double value) {
+        // Compares bits so that 0.0 and -0.0 are told apart where it matters.
+        return isConstant(x) && Double.doubleToLongBits(x.getN())
+                                == Double.doubleToLongBits(value);
+    }
+
+    /**
+     * Optimizes a number.
+     * @param x A number.
+     * @return An equivalent number.
+     */
+    Num optimize(Num x) {
+        if(!(x instanceof Node)) {
+            return x;
+        }
+        Num done = (Num)nums.get(x);
+        if(done == null) {
+            done = simplifyN((Node)x);
+            nums.put(x, done);
+        }
+        return done;
+    }
+
+    /**
+     * Optimizes a boolean.
+     * @param p A boolean.
+     * @return An equivalent boolean.
+     */
+    Bool optimize(Bool p) {
+        if(!(p instanceof Node)) {
+            return p;
+        }
+        Bool done = (Bool)bools.get(p);
+        if(done == null) {
+            done = simplifyB((Node)p);
+            bools.put(p, done);
+        }
+        return done;
+    }
+
+    // Optimizes operands first. Returns whether all of them are constants.
+    private boolean optimizeOperands(Node node, Num[] xs, Bool[] ps) {
+        Num[] oldXs = node.nums();
+        Bool[] oldPs = node.bools();
+        boolean allConstant = true;
+        for(int i=0; i<xs.length; i++) {
+            xs[i] = optimize(oldXs[i]);
+            allConstant = allConstant && isConstant(xs[i]);
+        }
+        for(int i=0; i<ps.length; i++) {
+            ps[i] = optimize(oldPs[i]);
+            allConstant = allConstant && isConstant(ps[i]);
+        }
+        return allConstant;
+    }
+
+    // Reuses the original node if none of its operands changed.
+    private static Object rebuild(Node node, Num[] xs, Bool[] ps,
+                                  boolean isBool) {
+        Num[] oldXs = node.nums();
+        Bool[] oldPs = node.bools();
+        boolean same = xs.length == oldXs.length && ps.length == oldPs.length;
+        for(int i=0; same && i<xs.length; i++) {
+            same = xs[i] == oldXs[i];
+        }
+        for(int i=0; same && i<ps.length; i++) {
+            same = ps[i] == oldPs[i];
+        }
+        if(same) {
+            return node;
+        }
+        return isBool ? (Object)BoolFunc.rebuild(node, xs, ps)
+                      : (Object)NumFunc.rebuild(node, xs, ps);
+    }
+
+    private Num simplifyN(Node node) {
+        int op = node.op();
+        Num[] xs = new Num[node.nums().length];
+        Bool[] ps = new Bool[node.bools().length];
+        boolean allConstant = optimizeOperands(node, xs, ps);
+        if(op == Node.CONSTANT) {
+            return (Num)node;
+        }
+        if(allConstant) {
+            // Evaluating an operator of constants always gives the same value.
+            return NumFunc.id(NumFunc.rebuild(node, xs, ps).getN());
+        }
+        switch(op) {
+            case Node.NUM_MEMO:
+                // Memoizing a leaf or block is still worthwhile, so keep it.
+                break;
+            case Node.SUM:
+                return associative(node, xs, Node.SUM, 0.0);
+            case Node.PROD:
+                return associative(node, xs, Node.PROD, 1.0);
+            case Node.MAX:
+                return associative(node, xs, Node.MAX,
+                                   Double.NEGATIVE_INFINITY);
+            case Node.MIN:
+                return associative(node, xs, Node.MIN,
+                                   Double.POSITIVE_INFINITY);
+            case Node.DIFF:
+                // x - 0 is x, even for x = -0.0.
+                if(isConstant(xs[1], 0.0)) {
+                    return xs[0];
+                }
+                break;
+            case Node.QUOT:
+                // The 0/0 hack can't trigger when dividing by 1.
+                if(isConstant(xs[1], 1.0)) {
+                    return xs[0];
+                }
+                break;
+            case Node.LIMIT:
+                if(isConstant(xs[0], Double.NEGATIVE_INFINITY)
+                   && isConstant(xs[1], Double.POSITIVE_INFINITY)) {
+                    return xs[2];
+                }
+                break;
+            case Node.DEADBAND:
+                // Nothing is strictly within 0 of the center.
+                if(isConstant(xs[1]) && xs[1].getN() == 0.0) {
+                    return xs[2];
+                }
+                break;
+            case Node.NUM_MUX:
+                if(isConstant(xs[0])) {
+                    // Same rounding as Multiplexer#getChoice().
+                    int n = xs.length - 1;
+                    return xs[1 + (int)(0.5 + Utils.limit(0, n - 1,
+                                                          xs[0].getN()))];
+                }
+                break;
+        }
+        return (Num)rebuild(node, xs, ps, false);
+    }
+
+    // Sums, products, maxima and minima: flattens a nested operator of the same
+    // kind in front, folds leading constants and drops identity elements.
+    private Num associative(Node node, Num[] xs, int op, double identity) {
+        Vector operands = new Vector();
+        // Only the first operand can be flattened without changing the order
+        // of evaluation: ((a + b) + c) is evaluated just like a + b + c.
+        if(isOp(xs[0], op)) {
+            Num[] inner = ((Node)xs[0]).nums();
+            for(int i=0; i<inner.length; i++) {
+                operands.addElement(inner[i]);
+            }
+        }
+        else {
+            operands.addElement(xs[0]);
+        }
+        for(int i=1; i<xs.length; i++) {
+            operands.addElement(xs[i]);
+        }
+        // Fold constants at the front into one.
+        int leading = 0;
+        while(leading < operands.size()
+              && isConstant((Num)operands.elementAt(leading))) {
+            leading++;
+        }
+        if(leading > 1) {
+            Num[] front = new Num[leading];
+            for(int i=0; i<leading; i++) {
+                front[i] = (Num)operands.elementAt(0);
+                operands.removeElementAt(0);
+            }
+            Num folded = NumFunc.rebuild(node, front, new Bool[0]);
+            operands.insertElementAt(NumFunc.id(folded.getN()), 0);
+        }
+        // Drop identity elements. Adding 0.0 is only an identity for the
+        // running total, which can never be -0.0, so both zeros go.
+        for(int i=operands.size()-1; i>=0; i--) {
+            Num x = (Num)operands.elementAt(i);
+            if(isConstant(x, identity)
+               || (op == Node.SUM && isConstant(x) && x.getN() == 0.0)) {
+                operands.removeElementAt(i);
+            }
+        }
+        if(operands.size() == 0) {
+            return NumFunc.id(identity);
+        }
+        else if(operands.size() == 1) {
+            Num x = (Num)operands.elementAt(0);
+            // A sum starts from 0.0, so sum(x) is 0.0 where x is -0.0. Only an
+            // operand that can't be -0.0 can stand alone.
+            if(op != Node.SUM || isOp(x, Node.SUM)
+               || (isConstant(x) && !isConstant(x, -0.0))) {
+                return x;
+            }
+            Num[] ys = {x};
+            return (Num)rebuild(node, ys, new Bool[0], false);
+        }
+        Num[] ys = new Num[operands.size()];
+        operands.copyInto(ys);
+        return (Num)rebuild(node, ys, new Bool[0], false);
+    }
+
+    private Bool simplifyB(Node node) {
+        int op = node.op();
+        Num[] xs = new Num[node.nums().length];
+        Bool[] ps = new Bool[node.bools().length];
+        boolean allConstant = optimizeOperands(node, xs, ps);
+        if(op == Node.B_CONSTANT) {
+            return (Bool)node;
+        }
+        if(allConstant) {
+            return BoolFunc.id(BoolFunc.rebuild(node, xs, ps).getB());
+        }
+        switch(op) {
+            case Node.NOT:
+                if(isOp(ps[0], Node.NOT)) {
+                    return ((Node)ps[0]).bools()[0];
+                }
+                break;
+            case Node.AND:
+                return andOr(node, ps, true);
+            case Node.OR:
+                return andOr(node, ps, false);
+            case Node.XOR:
+                for(int i=0; i<2; i++) {
+                    if(isConstant(ps[i])) {
+                        Bool other = ps[1-i];
+                        return ps[i].getB() ? BoolFunc.not(other) : other;
+                    }
+                }
+                break;
+        }
+        return (Bool)rebuild(node, xs, ps, true);
+    }
+
+    // Conjunction if isAnd, disjunction otherwise. Booleans have no rounding,
+    // so nested operators are flattened wherever they appear.
+    private Bool andOr(Node node, Bool[] ps, boolean isAnd) {
+        int op = isAnd ? Node.AND : Node.OR;
+        Vector operands = new Vector();
+        for(int i=0; i<ps.length; i++) {
+            Bool[] inner = isOp(ps[i], op) ? ((Node)ps[i]).bools() : null;
+            for(int j=0; j<(inner == null ? 1 : inner.length); j++) {
+                Bool p = (inner == null) ? ps[i] : inner[j];
+                if(isConstant(p)) {
+                    if(p.getB() != isAnd) {
+                        // False in a conjunction or true in a disjunction.
+                        return BoolFunc.id(!isAnd);
+                    }
+                }
+                else {
+                    operands.addElement(p);
+                }
+            }
+        }
+        if(operands.size() == 0) {
+            return BoolFunc.id(isAnd);
+        }
+        else if(operands.size() == 1) {
+            return (Bool)operands.elementAt(0);
+        }
+        Bool[] qs = new Bool[operands.size()];
+        operands.copyInto(qs);
+        return (Bool)rebuild(node, new Num[0], qs, true);
+    }
+}
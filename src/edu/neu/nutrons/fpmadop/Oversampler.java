@@ -0,0 +1,182 @@
+package edu.neu.nutrons.fpmadop;
+
+/**
+ * Reads sensors on their own high-rate thread, so slow or noisy reads stay
+ * out of the control loop. Every period, a {@link PeriodicScheduler} reads
+ * each sensor added with {@link Oversampler#add(Num, Reduce, BlockThread)}
+ * and hands the sample to the {@link BlockThread} that uses it through a
+ * single-producer, single-consumer ring. Once per time step, that thread
+ * takes either the latest sample or the average of every sample since the
+ * previous step, without ever waiting on the sampling thread:
+ * <pre>
+ * Oversampler fast = new Oversampler(0.001);
+ * Num angle = fast.add(new Gyro(1), Oversampler.Reduce.LATEST, thread);
+ * Num volts = fast.add(new AnalogChannel(2), Oversampler.Reduce.AVERAGE,
+ *                      thread);
+ * fast.start();
+ * </pre>
+ * If a thread stops taking samples for long enough that a ring fills up,
+ * new samples are dropped and counted until it catches up, and the first
+ * average after that is of old samples.
+ *
+ * The sampling thread runs at the priority of the thread that created the
+ * oversampler; raise it through {@link Oversampler#scheduler()} if samples
+ * need to be taken on time even while the control loop is busy.
+ *
+ * @author Ziv
+ */
+public class Oversampler {
+
+    // A power of two, so positions wrap with a mask.
+    private static final int CAPACITY = 256;
+
+    /**
+     * How the samples taken during a time step become that step's value.
+     */
+    public static abstract class Reduce {
+        private Reduce() {}
+        /**
+         * The most recent sample.
+         */
+        public static final Reduce LATEST = new Reduce() {};
+        /**
+         * The mean of the samples taken since the previous step. If there
+         * were none, the previous value is kept.
+         */
+        public static final Reduce AVERAGE = new Reduce() {};
+    }
+
+    private static class Channel extends NumBlock {
+        private Num sensor;
+        private Reduce how;
+        private double[] ring = new double[CAPACITY];
+        // Only the sampling thread writes head, and only the thread handling
+        // this block writes tail. Samples tail through head-1 are waiting.
+        private volatile long head = 0;
+        private volatile long tail = 0;
+        private volatile long dropped = 0;
+        private volatile double latest;
+        private double value;
+        private Channel(Num sensor, Reduce how, BlockThread thread) {
+            super(thread);
+            this.sensor = sensor;
+            this.how = how;
+            latest = sensor.getN();
+            value = latest;
+        }
+        // Called on the sampling thread.
+        private void sample() {
+            double x = sensor.getN();
+            latest = x;
+            if(how == Reduce.AVERAGE) {
+                long h = head;
+                if(h - tail >= CAPACITY) {
+                    dropped++;
+                    return;
+                }
+                ring[(int)h & (CAPACITY - 1)] = x;
+                head = h + 1;
+            }
+        }
+        protected void handle() {
+            if(how == Reduce.LATEST) {
+                value = latest;
+                return;
+            }
+            long t = tail;
+            long h = head;
+            if(h == t) {
+                return;
+            }
+            double sum = 0.0;
+            for(long i=t; i<h; i++) {
+                sum += ring[(int)i & (CAPACITY - 1)];
+            }
+            value = sum / (h - t);
+            tail = h;
+        }
+        public double getN() {
+            return value;
+        }
+        protected Num[] inputNums() {
+            // The sensor is only read by the sampling thread.
+            return new Num[0];
+        }
+    }
+
+    private PeriodicScheduler loop;
+    // Copied on write so the sampling thread reads it without a lock.
+    private volatile Channel[] channels = new Channel[0];
+
+    /**
+     * Creates a sampling thread that isn't running yet.
+     * @param period Time in seconds between samples.
+     */
+    public Oversampler(double period) {
+        loop = new PeriodicScheduler(period, PeriodicScheduler.Mode.FIXED_RATE,
+                                     PeriodicScheduler.Overrun.SKIP,
+                                     new Runnable() {
+            public void run() {
+                Channel[] cs = channels;
+                for(int i=0; i<cs.length; i++) {
+                    cs[i].sample();
+                }
+            }
+        });
+    }
+
+    /**
+     * Samples a sensor on this thread.
+     * @param sensor The sensor. It is read once right away, and from then on
+     * only by the sampling thread.
+     * @param how Whether each step uses the latest sample or the average.
+     * @param thread The {@link BlockThread} that uses the samples.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the
+     * sensor's value for the current time step. It is a {@link Block} in the
+     * given thread.
+     */
+    public synchronized Num add(Num sensor, Reduce how, BlockThread thread) {
+        Channel c = new Channel(sensor, how, thread);
+        Channel[] more = new Channel[channels.length + 1];
+        System.arraycopy(channels, 0, more, 0, channels.length);
+        more[channels.length] = c;
+        channels = more;
+        return c;
+    }
+
+    /**
+     * Starts sampling.
+     */
+    public void start() {
+        loop.start();
+    }
+
+    /**
+     * Stops sampling. Values stay at the last samples taken.
+     */
+    public void stop() {
+        loop.stop();
+    }
+
+    /**
+     * The scheduler running the sampling thread, which keeps track of jitter
+     * and overruns.
+     * @return The scheduler.
+     */
+    public PeriodicScheduler scheduler() {
+        return loop;
+    }
+
+    /**
+     * How many samples have been dropped because a ring was full.
+     * @return The number of samples dropped, over all sensors.
+     */
+    public long getDropped() {
+        Channel[] cs = channels;
+        long dropped = 0;
+        for(int i=0; i<cs.length; i++) {
+            dropped += cs[i].dropped;
+        }
+        return dropped;
+    }
+}
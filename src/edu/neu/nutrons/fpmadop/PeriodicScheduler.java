@@ -0,0 +1,271 @@
+package edu.neu.nutrons.fpmadop;
+
+import edu.neu.nutrons.fpmadop.hal.Hal;
+
+/**
+ * Runs a task periodically on its own thread with as little jitter as the
+ * platform allows. Times come from {@link Hal#wallMicros()} of the current
+ * {@link Hal}, which on the robot is the FPGA's microsecond clock. To wake up
+ * on time, the thread sleeps until shortly before each deadline and then
+ * spins, yielding, for the rest. It spins for at most a tenth of the period,
+ * so it sleeps for most of every wait that's long enough to sleep through at
+ * all; sleeps are whole milliseconds, so a period of a millisecond or less is
+ * mostly spent yielding.
+ *
+ * The thread runs at the priority of the thread that created the scheduler
+ * unless {@link PeriodicScheduler#setPriority(int)} says otherwise.
+ *
+ * Jitter (how late each run starts) and overruns (runs that didn't finish
+ * before the next was due) are counted so a loop that can't keep up is easy
+ * to spot.
+ *
+ * @author Ziv
+ */
+public class PeriodicScheduler {
+
+    // Sleep granularity is a millisecond at best, so spin for the last two,
+    // or less for short periods.
+    private static final long SPIN_MICROS = 2000;
+
+    /**
+     * How the time of the next run is chosen.
+     */
+    public static abstract class Mode {
+        private Mode() {}
+        /**
+         * Runs start a whole number of periods after the first one, no matter
+         * how long each run takes.
+         */
+        public static final Mode FIXED_RATE = new Mode() {};
+        /**
+         * Each run starts one period after the previous one finished.
+         */
+        public static final Mode FIXED_DELAY = new Mode() {};
+    }
+
+    /**
+     * What a {@link Mode#FIXED_RATE} scheduler does when a run finishes after
+     * the next one was due.
+     */
+    public static abstract class Overrun {
+        private Overrun() {}
+        /**
+         * Drops the runs that were missed and waits for the next deadline that
+         * is still in the future.
+         */
+        public static final Overrun SKIP = new Overrun() {};
+        /**
+         * Makes up every missed run, back to back, until it is on schedule.
+         */
+        public static final Overrun CATCH_UP = new Overrun() {};
+        /**
+         * Runs once right away and shifts all later deadlines to follow on from
+         * that run.
+         */
+        public static final Overrun RUN_LATE = new Overrun() {};
+    }
+
+    private Hal hal = Hal.get();
+    private Runnable task;
+    private long period;
+    private long spin;
+    private int priority = Thread.currentThread().getPriority();
+    private Mode mode;
+    private Overrun overrun;
+    private volatile Thread thread = null;
+    private volatile boolean running = false;
+    private volatile long runs = 0;
+    private volatile long overruns = 0;
+    private volatile long skipped = 0;
+    private volatile long lastJitter = 0;
+    private volatile long maxJitter = 0;
+    private volatile long totalJitter = 0;
+
+    /**
+     * Creates a scheduler. It doesn't run anything until
+     * {@link PeriodicScheduler#start()} is called.
+     * @param period Time in seconds between runs.
+     * @param mode Whether the period is measured between starts of runs or
+     * from the end of one run to the start of the next.
+     * @param overrun What to do when a run takes too long. Only matters for
+     * {@link Mode#FIXED_RATE}.
+     * @param task What to run.
+     */
+    public PeriodicScheduler(double period, Mode mode, Overrun overrun,
+                             Runnable task) {
+        this.period = Math.max(1, (long)(1e6*period + 0.5));
+        spin = Math.min(SPIN_MICROS, this.period / 10);
+        this.mode = mode;
+        this.overrun = overrun;
+        this.task = task;
+    }
+
+    private long now() {
+        return hal.wallMicros();
+    }
+
+    /**
+     * Sets the priority of the thread running the task, now if it's running
+     * and whenever it's started. A high priority cuts jitter but starves
+     * other threads of the same or lower priority while the task runs.
+     * @param priority A priority between {@link Thread#MIN_PRIORITY} and
+     * {@link Thread#MAX_PRIORITY}.
+     */
+    public synchronized void setPriority(int priority) {
+        if(priority < Thread.MIN_PRIORITY || priority > Thread.MAX_PRIORITY) {
+            throw new IllegalArgumentException("Bad priority: " + priority);
+        }
+        this.priority = priority;
+        if(thread != null) {
+            thread.setPriority(priority);
+        }
+    }
+
+    /**
+     * Starts running the task on a new thread. The first run is immediate.
+     */
+    public synchronized void start() {
+        if(thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread() {
+            public void run() {
+                loop();
+            }
+        };
+        thread.setPriority(priority);
+        thread.start();
+    }
+
+    /**
+     * Stops running the task. A run in progress is allowed to finish.
+     */
+    public synchronized void stop() {
+        running = false;
+        thread = null;
+    }
+
+    private void waitUntil(long deadline) {
+        long remaining = deadline - now();
+        while(remaining - spin >= 1000) {
+            try {
+                Thread.sleep((remaining - spin) / 1000);
+            }
+            catch(InterruptedException e) {
+                // Just check the time again.
+            }
+            remaining = deadline - now();
+        }
+        while(now() < deadline) {
+            Thread.yield();
+        }
+    }
+
+    private void loop() {
+        // A stopped loop may still be finishing a run after a new one starts.
+        Thread self = Thread.currentThread();
+        long next = now();
+        while(running && thread == self) {
+            waitUntil(next);
+            long start = now();
+            long jitter = start - next;
+            lastJitter = jitter;
+            maxJitter = Math.max(maxJitter, jitter);
+            totalJitter += jitter;
+            task.run();
+            runs++;
+            long end = now();
+            if(mode == Mode.FIXED_DELAY) {
+                if(end - start > period) {
+                    overruns++;
+                }
+                next = end + period;
+                continue;
+            }
+            next += period;
+            if(end > next) {
+                overruns++;
+                if(overrun == Overrun.SKIP) {
+                    long missed = (end - next) / period + 1;
+                    skipped += missed;
+                    next += missed*period;
+                }
+                else if(overrun == Overrun.RUN_LATE) {
+                    next = end;
+                }
+                // CATCH_UP leaves next in the past, so the missed runs happen
+                // immediately.
+            }
+        }
+    }
+
+    /**
+     * The period between runs.
+     * @return The period in seconds.
+     */
+    public double getPeriod() {
+        return period / 1e6;
+    }
+
+    /**
+     * How many times the task has run.
+     * @return The number of runs.
+     */
+    public long getRuns() {
+        return runs;
+    }
+
+    /**
+     * How many runs finished after the next run was due.
+     * @return The number of overruns.
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * How many runs were dropped by {@link Overrun#SKIP}.
+     * @return The number of skipped runs.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * How late the most recent run started.
+     * @return The delay in seconds.
+     */
+    public double getLastJitter() {
+        return lastJitter / 1e6;
+    }
+
+    /**
+     * How late the latest run so far started.
+     * @return The delay in seconds.
+     */
+    public double getMaxJitter() {
+        return maxJitter / 1e6;
+    }
+
+    /**
+     * How late runs started on average.
+     * @return The delay in seconds.
+     */
+    public double getMeanJitter() {
+        long n = runs;
+        return (n == 0) ? 0.0 : totalJitter / 1e6 / n;
+    }
+
+    /**
+     * Forgets all jitter and overrun counts.
+     */
+    public void resetCounters() {
+        runs = 0;
+        overruns = 0;
+        skipped = 0;
+        lastJitter = 0;
+        maxJitter = 0;
+        totalJitter = 0;
+    }
+}
@@ -0,0 +1,230 @@
+package edu.neu.nutrons.fpmadop;
+
+import edu.neu.nutrons.fpmadop.hal.Hal;
+import java.io.PrintStream;
+
+/**
+ * Timing of a {@link BlockThread}'s time steps and of each of its blocks.
+ * While a thread is being profiled (see {@link BlockThread#profile()}), every
+ * {@link Block#handle()} call and every whole time step is timed with the
+ * microsecond clock of the current {@link Hal} and counted in a
+ * {@link Histogram}. Steps that take
+ * longer than the budget, normally the thread's period, are counted as
+ * overruns.
+ *
+ * Timing costs two clock reads per block, so it's best left off when it's not
+ * needed.
+ *
+ * @author Ziv
+ */
+public class Profile {
+
+    private BlockThread thread;
+    private Hal hal = Hal.get();
+    private Histogram steps = new Histogram();
+    private volatile long budget;
+    private volatile long overruns = 0;
+    private volatile Thread reporter = null;
+
+    Profile(BlockThread thread, double budget) {
+        this.thread = thread;
+        setBudget(budget);
+        // Starting over, so blocks profiled before don't keep their times.
+        Block[] all = thread.scheduledWithGroups();
+        for(int i=0; i<all.length; i++) {
+            all[i].timing = null;
+        }
+    }
+
+    /**
+     * The time from this profile's clock.
+     * @return The time in microseconds.
+     */
+    long now() {
+        return hal.micros();
+    }
+
+    /**
+     * Handles blocks, timing each one.
+     * @param blocks The blocks, in order.
+     */
+    void handle(Block[] blocks) {
+        for(int i=0; i<blocks.length; i++) {
+            Block b = blocks[i];
+            long start = now();
+            b.handle();
+            long end = now();
+            Histogram h = b.timing;
+            if(h == null) {
+                // Only happens the first time a block is profiled.
+                h = new Histogram();
+                b.timing = h;
+            }
+            h.record(end - start);
+        }
+    }
+
+    /**
+     * Counts a whole time step. Called by the owning {@link BlockThread}.
+     * @param micros How long the step took.
+     */
+    void step(long micros) {
+        steps.record(micros);
+        if(micros > budget) {
+            overruns++;
+        }
+    }
+
+    /**
+     * How long a time step may take before it counts as an overrun.
+     * @return The budget in seconds.
+     */
+    public double getBudget() {
+        return budget / 1e6;
+    }
+
+    /**
+     * Sets how long a time step may take before it counts as an overrun.
+     * @param seconds The budget in seconds.
+     */
+    public void setBudget(double seconds) {
+        budget = (long)(1e6*seconds + 0.5);
+    }
+
+    /**
+     * How long time steps have taken.
+     * @return A histogram of step durations in microseconds.
+     */
+    public Histogram getSteps() {
+        return steps;
+    }
+
+    /**
+     * How many time steps took longer than the budget.
+     * @return The number of overruns.
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * How long a block's {@link Block#handle()} method has taken.
+     * @param b A block handled by the profiled thread.
+     * @return A histogram of durations in microseconds, or {@code null} if
+     * the block hasn't been handled while profiling.
+     */
+    public Histogram getTimes(Block b) {
+        return b.timing;
+    }
+
+    /**
+     * The blocks that have taken the most time in total.
+     * @param n How many blocks to return at most.
+     * @return Blocks that have been handled while profiling, most expensive
+     * first.
+     */
+    public Block[] getSlowest(int n) {
+        Block[] all = thread.scheduledWithGroups();
+        Block[] top = new Block[Math.max(0, Math.min(n, all.length))];
+        if(top.length == 0) {
+            return top;
+        }
+        int size = 0;
+        for(int i=0; i<all.length; i++) {
+            Histogram h = all[i].timing;
+            if(h == null) {
+                continue;
+            }
+            // Insertion into a short sorted list.
+            int j = size;
+            if(size < top.length) {
+                size++;
+            }
+            else if(h.getTotal() <= top[size-1].timing.getTotal()) {
+                continue;
+            }
+            else {
+                j = size - 1;
+            }
+            while(j > 0 && top[j-1].timing.getTotal() < h.getTotal()) {
+                top[j] = top[j-1];
+                j--;
+            }
+            top[j] = all[i];
+        }
+        Block[] exact = new Block[size];
+        System.arraycopy(top, 0, exact, 0, size);
+        return exact;
+    }
+
+    /**
+     * Forgets all timings.
+     */
+    public void reset() {
+        steps.reset();
+        overruns = 0;
+        Block[] all = thread.scheduledWithGroups();
+        for(int i=0; i<all.length; i++) {
+            if(all[i].timing != null) {
+                all[i].timing.reset();
+            }
+        }
+    }
+
+    /**
+     * A readable summary of step times, overruns and the slowest blocks. All
+     * times are in microseconds.
+     * @param n How many blocks to list.
+     * @return The summary.
+     */
+    public String summary(int n) {
+        StringBuffer s = new StringBuffer();
+        s.append("steps: ").append(steps.toString());
+        s.append(" overruns=").append(overruns);
+        s.append(" budget=").append(budget).append('\n');
+        Block[] slowest = getSlowest(n);
+        for(int i=0; i<slowest.length; i++) {
+            Histogram h = slowest[i].timing;
+            s.append("  ").append(slowest[i].getClass().getName());
+            s.append(": total=").append(h.getTotal()).append(' ');
+            s.append(h.toString()).append('\n');
+        }
+        return s.toString();
+    }
+
+    /**
+     * Prints {@link Profile#summary(int)} periodically from a low priority
+     * thread, so the profiled thread never waits on printing.
+     * @param period Time in seconds between summaries.
+     * @param n How many blocks to list.
+     * @param out Where to print.
+     */
+    public synchronized void startReporting(final double period, final int n,
+                                            final PrintStream out) {
+        stopReporting();
+        reporter = new Thread() {
+            public void run() {
+                while(reporter == this) {
+                    try {
+                        Thread.sleep((long)(1000*period));
+                    }
+                    catch(InterruptedException e) {
+                        // Print early.
+                    }
+                    if(reporter == this) {
+                        out.print(summary(n));
+                    }
+                }
+            }
+        };
+        reporter.setPriority(Thread.MIN_PRIORITY);
+        reporter.start();
+    }
+
+    /**
+     * Stops printing summaries.
+     */
+    public synchronized void stopReporting() {
+        reporter = null;
+    }
+}
@@ -0,0 +1,340 @@
+package edu.neu.nutrons.fpmadop;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * A graph of {@link NumFunc} and {@link BoolFunc} operators compiled into a
+ * flat list of instructions. Each instruction reads and writes slots of a
+ * {@code double[]} or {@code boolean[]} instead of calling {@link Num#getN()}
+ * on other objects, so evaluating the whole graph is a single loop. Anything
+ * that isn't one of those operators (a sensor, a {@link Block}, etc.) becomes
+ * a leaf that is read through its usual interface once per run.
+ *
+ * The graph is evaluated once per time step, when this block is handled, so
+ * its value doesn't change in the middle of a step. Subexpressions shared by
+ * several operators are only evaluated once.
+ *
+ * @author Ziv
+ */
+class Program extends Block implements Num, Bool {
+
+    // Instructions that don't correspond to a Node operator.
+    static final int LOAD_N = 100;
+    static final int LOAD_B = 101;
+
+    // Each instruction is an operator, a destination slot, an argument count
+    // and then that many arguments. Arguments are slots, except for loads,
+    // whose single argument is an index into the leaves.
+    int[] code;
+    double[] ns;
+    boolean[] bs;
+    Num[] numLeaves;
+    Bool[] boolLeaves;
+    int root;
+
+    private Program(Compiler c, BlockThread thread) {
+        super(thread);
+        code = new int[c.codeLength];
+        System.arraycopy(c.code, 0, code, 0, c.codeLength);
+        ns = new double[c.nsLength];
+        System.arraycopy(c.ns, 0, ns, 0, c.nsLength);
+        bs = new boolean[c.bsLength];
+        System.arraycopy(c.bs, 0, bs, 0, c.bsLength);
+        numLeaves = new Num[c.numLeaves.size()];
+        c.numLeaves.copyInto(numLeaves);
+        boolLeaves = new Bool[c.boolLeaves.size()];
+        c.boolLeaves.copyInto(boolLeaves);
+        root = c.root;
+    }
+
+    /**
+     * Compiles a graph whose output is a number.
+     * @param x The root of the graph.
+     * @param thread The {@link BlockThread} that runs the program.
+     * @return The compiled program, which is a {@link Num}.
+     */
+    static Program compile(Num x, BlockThread thread) {
+        Compiler c = new Compiler();
+        c.root = c.slotN(x);
+        return new Program(c, thread);
+    }
+
+    /**
+     * Compiles a graph whose output is a boolean.
+     * @param p The root of the graph.
+     * @param thread The {@link BlockThread} that runs the program.
+     * @return The compiled program, which is a {@link Bool}.
+     */
+    static Program compile(Bool p, BlockThread thread) {
+        Compiler c = new Compiler();
+        c.root = c.slotB(p);
+        return new Program(c, thread);
+    }
+
+    private static class Compiler {
+        private int[] code = new int[64];
+        private int codeLength = 0;
+        private double[] ns = new double[16];
+        private int nsLength = 0;
+        private boolean[] bs = new boolean[16];
+        private int bsLength = 0;
+        private Vector numLeaves = new Vector();
+        private Vector boolLeaves = new Vector();
+        private Hashtable nSlots = new Hashtable();
+        private Hashtable bSlots = new Hashtable();
+        private int root = 0;
+
+        private void emit(int word) {
+            if(codeLength == code.length) {
+                int[] bigger = new int[2*code.length];
+                System.arraycopy(code, 0, bigger, 0, codeLength);
+                code = bigger;
+            }
+            code[codeLength++] = word;
+        }
+
+        private int newN(double initialValue) {
+            if(nsLength == ns.length) {
+                double[] bigger = new double[2*ns.length];
+                System.arraycopy(ns, 0, bigger, 0, nsLength);
+                ns = bigger;
+            }
+            ns[nsLength] = initialValue;
+            return nsLength++;
+        }
+
+        private int newB(boolean initialValue) {
+            if(bsLength == bs.length) {
+                boolean[] bigger = new boolean[2*bs.length];
+                System.arraycopy(bs, 0, bigger, 0, bsLength);
+                bs = bigger;
+            }
+            bs[bsLength] = initialValue;
+            return bsLength++;
+        }
+
+        private int slotN(Num x) {
+            Integer seen = (Integer)nSlots.get(x);
+            if(seen != null) {
+                return seen.intValue();
+            }
+            int slot;
+            Node node = (x instanceof Node) ? (Node)x : null;
+            if(node == null) {
+                slot = newN(0.0);
+                emit(LOAD_N);
+                emit(slot);
+                emit(1);
+                emit(numLeaves.size());
+                numLeaves.addElement(x);
+            }
+            else if(node.op() == Node.CONSTANT) {
+                // Constants live in their slot and are never recomputed.
+                slot = newN(x.getN());
+            }
+            else if(node.op() == Node.NUM_MEMO) {
+                // Everything is evaluated once per run anyway.
+                slot = slotN(node.nums()[0]);
+            }
+            else {
+                slot = emitOp(node, false);
+            }
+            nSlots.put(x, new Integer(slot));
+            return slot;
+        }
+
+        private int slotB(Bool p) {
+            Integer seen = (Integer)bSlots.get(p);
+            if(seen != null) {
+                return seen.intValue();
+            }
+            int slot;
+            Node node = (p instanceof Node) ? (Node)p : null;
+            if(node == null) {
+                slot = newB(false);
+                emit(LOAD_B);
+                emit(slot);
+                emit(1);
+                emit(boolLeaves.size());
+                boolLeaves.addElement(p);
+            }
+            else if(node.op() == Node.B_CONSTANT) {
+                slot = newB(p.getB());
+            }
+            else if(node.op() == Node.B_MEMO) {
+                slot = slotB(node.bools()[0]);
+            }
+            else {
+                slot = emitOp(node, true);
+            }
+            bSlots.put(p, new Integer(slot));
+            return slot;
+        }
+
+        private int emitOp(Node node, boolean isBool) {
+            // Arguments are compiled first so their instructions come earlier.
+            Num[] xs = node.nums();
+            Bool[] ps = node.bools();
+            int[] args = new int[xs.length + ps.length];
+            for(int i=0; i<xs.length; i++) {
+                args[i] = slotN(xs[i]);
+            }
+            for(int i=0; i<ps.length; i++) {
+                args[xs.length + i] = slotB(ps[i]);
+            }
+            int slot = isBool ? newB(false) : newN(0.0);
+            emit(node.op());
+            emit(slot);
+            emit(args.length);
+            for(int i=0; i<args.length; i++) {
+                emit(args[i]);
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * Runs every instruction once, in order.
+     */
+    void execute() {
+        int pc = 0;
+        while(pc < code.length) {
+            pc = execute(pc);
+        }
+    }
+
+    /**
+     * Runs one instruction.
+     * @param pc Where the instruction starts in {@code code}.
+     * @return Where the next instruction starts.
+     */
+    int execute(int pc) {
+        int op = code[pc];
+        int dst = code[pc+1];
+        int argc = code[pc+2];
+        int a = pc + 3;
+        switch(op) {
+            case LOAD_N:
+                ns[dst] = numLeaves[code[a]].getN();
+                break;
+            case LOAD_B:
+                bs[dst] = boolLeaves[code[a]].getB();
+                break;
+            case Node.SUM: {
+                double ret = 0;
+                for(int i=0; i<argc; i++) {
+                    ret += ns[code[a+i]];
+                }
+                ns[dst] = ret;
+                break;
+            }
+            case Node.PROD: {
+                double ret = 1;
+                for(int i=0; i<argc; i++) {
+                    ret *= ns[code[a+i]];
+                }
+                ns[dst] = ret;
+                break;
+            }
+            case Node.DIFF:
+                ns[dst] = ns[code[a]] - ns[code[a+1]];
+                break;
+            case Node.QUOT: {
+                double xVal = ns[code[a]];
+                double yVal = ns[code[a+1]];
+                // Same 0/0 hack as NumFunc.quot.
+                if(yVal == 0.0 && Math.abs(xVal) < 0.0001) {
+                    ns[dst] = 1.0;
+                }
+                else {
+                    ns[dst] = xVal / yVal;
+                }
+                break;
+            }
+            case Node.BOOL_TO_NUM:
+                ns[dst] = bs[code[a]] ? 1.0 : 0.0;
+                break;
+            case Node.LIMIT:
+                ns[dst] = Utils.limit(ns[code[a]], ns[code[a+1]],
+                                      ns[code[a+2]]);
+                break;
+            case Node.DEADBAND:
+                ns[dst] = Utils.deadband(ns[code[a]], ns[code[a+1]],
+                                         ns[code[a+2]]);
+                break;
+            case Node.MAX: {
+                double ret = Double.NEGATIVE_INFINITY;
+                for(int i=0; i<argc; i++) {
+                    ret = Math.max(ret, ns[code[a+i]]);
+                }
+                ns[dst] = ret;
+                break;
+            }
+            case Node.MIN: {
+                double ret = Double.POSITIVE_INFINITY;
+                for(int i=0; i<argc; i++) {
+                    ret = Math.min(ret, ns[code[a+i]]);
+                }
+                ns[dst] = ret;
+                break;
+            }
+            case Node.NUM_MUX: {
+                // Selector first, then the options. Rounds like
+                // Multiplexer#getChoice().
+                int n = argc - 1;
+                int i = (int)(0.5 + Utils.limit(0, n - 1, ns[code[a]]));
+                ns[dst] = ns[code[a+1+i]];
+                break;
+            }
+            case Node.NOT:
+                bs[dst] = !bs[code[a]];
+                break;
+            case Node.OR: {
+                boolean ret = false;
+                for(int i=0; i<argc; i++) {
+                    ret = ret || bs[code[a+i]];
+                }
+                bs[dst] = ret;
+                break;
+            }
+            case Node.AND: {
+                boolean ret = true;
+                for(int i=0; i<argc; i++) {
+                    ret = ret && bs[code[a+i]];
+                }
+                bs[dst] = ret;
+                break;
+            }
+            case Node.XOR:
+                bs[dst] = bs[code[a]] != bs[code[a+1]];
+                break;
+            case Node.IN_RANGE: {
+                double x = ns[code[a+2]];
+                bs[dst] = ns[code[a]] <= x && x <= ns[code[a+1]];
+                break;
+            }
+        }
+        return a + argc;
+    }
+
+    protected void handle() {
+        execute();
+    }
+
+    protected Num[] inputNums() {
+        return numLeaves;
+    }
+
+    protected Bool[] inputBools() {
+        return boolLeaves;
+    }
+
+    public double getN() {
+        return ns[root];
+    }
+
+    public boolean getB() {
+        return bs[root];
+    }
+}
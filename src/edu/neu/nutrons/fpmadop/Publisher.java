@@ -0,0 +1,149 @@
+package edu.neu.nutrons.fpmadop;
+
+/**
+ * Makes values computed by one {@link BlockThread} safe to read from other
+ * threads. Blocks keep their state in plain {@code double} fields, which
+ * another thread may see half-written or see out of step with each other.
+ * Instead, register the numbers and booleans to be shared with
+ * {@link Publisher#publish(Num)} and {@link Publisher#publish(Bool)}.
+ *
+ * Values are kept in three buffers used in turn. At the end of every time
+ * step, the owning thread copies all of them into the buffer after the
+ * current one and then bumps a volatile sequence number, which makes that
+ * buffer current. A buffer is only refilled two steps after it stopped being
+ * current, so a reader copies the current buffer and then checks the sequence
+ * number: if it moved by more than one, the copy may be torn and the reader
+ * tries again. Neither side ever takes a lock, so a slow reader can't hold up
+ * the owning thread.
+ *
+ * @author Ziv
+ */
+public class Publisher {
+
+    private static final int BUFFERS = 3;
+
+    private static class Buffer {
+        private double[] ns;
+        private boolean[] bs;
+        private Buffer(int numCount, int boolCount) {
+            ns = new double[numCount];
+            bs = new boolean[boolCount];
+        }
+    }
+
+    private class Published implements Num, Bool {
+        private int i;
+        private Published(int i) {
+            this.i = i;
+        }
+        public double getN() {
+            while(true) {
+                long s = seq;
+                Buffer b = buffers[(int)(s % BUFFERS)];
+                double x = i < b.ns.length ? b.ns[i] : 0.0;
+                if(seq - s < BUFFERS - 1) {
+                    return x;
+                }
+            }
+        }
+        public boolean getB() {
+            while(true) {
+                long s = seq;
+                Buffer b = buffers[(int)(s % BUFFERS)];
+                boolean p = i < b.bs.length && b.bs[i];
+                if(seq - s < BUFFERS - 1) {
+                    return p;
+                }
+            }
+        }
+    }
+
+    // Replaced, never modified, when a value is published, so update reads
+    // them without taking the publisher's lock.
+    private volatile Num[] nums = new Num[0];
+    private volatile Bool[] bools = new Bool[0];
+    // Only the owning thread writes these. buffers[seq % BUFFERS] is current.
+    private final Buffer[] buffers = new Buffer[BUFFERS];
+    private volatile long seq = 0;
+
+    Publisher() {
+        for(int i=0; i<BUFFERS; i++) {
+            buffers[i] = new Buffer(0, 0);
+        }
+    }
+
+    /**
+     * Shares a number with other threads. It's only read by the owning thread,
+     * starting at the end of the next time step; until then it reads as zero.
+     * @param x A number computed by this publisher's thread.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the value
+     * {@code x.getN()} had at the end of the most recent time step. It may be
+     * read from any thread.
+     */
+    public synchronized Num publish(Num x) {
+        Num[] more = new Num[nums.length + 1];
+        System.arraycopy(nums, 0, more, 0, nums.length);
+        more[nums.length] = x;
+        nums = more;
+        return new Published(nums.length - 1);
+    }
+
+    /**
+     * Shares a boolean with other threads. It's only read by the owning
+     * thread, starting at the end of the next time step; until then it reads
+     * as false.
+     * @param p A boolean computed by this publisher's thread.
+     * @return A {@link Bool} whose {@link Bool#getB()} method returns the value
+     * {@code p.getB()} had at the end of the most recent time step. It may be
+     * read from any thread.
+     */
+    public synchronized Bool publish(Bool p) {
+        Bool[] more = new Bool[bools.length + 1];
+        System.arraycopy(bools, 0, more, 0, bools.length);
+        more[bools.length] = p;
+        bools = more;
+        return new Published(bools.length - 1);
+    }
+
+    /**
+     * Copies every published value from the same time step.
+     * @param ns Receives the numbers, in the order they were published. May
+     * be shorter than the number of published numbers.
+     * @param bs Receives the booleans, in the order they were published. May
+     * be shorter than the number of published booleans.
+     */
+    public void read(double[] ns, boolean[] bs) {
+        while(true) {
+            long s = seq;
+            Buffer b = buffers[(int)(s % BUFFERS)];
+            System.arraycopy(b.ns, 0, ns, 0, Math.min(ns.length, b.ns.length));
+            System.arraycopy(b.bs, 0, bs, 0, Math.min(bs.length, b.bs.length));
+            if(seq - s < BUFFERS - 1) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads every registered value into the next buffer and makes it current.
+     * Called by the owning {@link BlockThread} at the end of each time step.
+     */
+    void update() {
+        Num[] xs = nums;
+        Bool[] ps = bools;
+        long next = seq + 1;
+        int i = (int)(next % BUFFERS);
+        Buffer b = buffers[i];
+        if(b.ns.length != xs.length || b.bs.length != ps.length) {
+            b = new Buffer(xs.length, ps.length);
+            buffers[i] = b;
+        }
+        for(int j=0; j<xs.length; j++) {
+            b.ns[j] = xs[j].getN();
+        }
+        for(int j=0; j<ps.length; j++) {
+            b.bs[j] = ps[j].getB();
+        }
+        seq = next;
+    }
+}
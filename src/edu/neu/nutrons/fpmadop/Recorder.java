@@ -0,0 +1,350 @@
+package edu.neu.nutrons.fpmadop;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records chosen numbers and booleans once per time step of a
+ * {@link BlockThread} and writes them to a stream without slowing the thread
+ * down. At the end of each step, the thread copies every channel into a ring
+ * buffer that was allocated up front; a separate low priority thread takes
+ * records out of the ring and does all of the encoding and writing. The
+ * thread handling blocks never allocates, takes a lock or waits on I/O. If the
+ * writer falls so far behind that the ring fills up, records are dropped and
+ * counted rather than making the thread wait.
+ *
+ * The stream is columnar. It starts with a header:
+ * <pre>
+ * int     MAGIC
+ * int     VERSION
+ * int     number of num channels, then a UTF name for each
+ * int     number of bool channels, then a UTF name for each
+ * </pre>
+ * followed by any number of chunks, each holding {@code n} consecutive
+ * records one column at a time:
+ * <pre>
+ * int     n
+ * int[n]  step index ({@link BlockThread#ticks()})
+ * double[n] time ({@link BlockThread#t()})
+ * double[n] for each num channel
+ * byte[(n+7)/8] for each bool channel, bit i of byte i/8 is record i
+ * </pre>
+ * Everything is big-endian, as written by {@link DataOutputStream}.
+ * Gaps in the step index show where records were dropped.
+ *
+ * @author Ziv
+ */
+public class Recorder {
+
+    /**
+     * The first four bytes of every recording.
+     */
+    public static final int MAGIC = 0x46504d4c;
+    /**
+     * The version of the format described above.
+     */
+    public static final int VERSION = 1;
+    // How long the writer sleeps when there's nothing to write.
+    private static final long WRITER_SLEEP_MILLIS = 10;
+    private static final int MAX_CHUNK = 256;
+    private static final Num[] NO_NUMS = {};
+    private static final Bool[] NO_BOOLS = {};
+    private static final String[] NO_NAMES = {};
+
+    private BlockThread thread;
+    private OutputStream out;
+    private int capacity;
+    private String[] numNames = NO_NAMES;
+    private String[] boolNames = NO_NAMES;
+    private Num[] nums = NO_NUMS;
+    private Bool[] bools = NO_BOOLS;
+    // The ring, one array per column, allocated when recording starts.
+    private int[] ticks;
+    private double[] times;
+    private double[][] ns;
+    private boolean[][] bs;
+    // Only the thread handling blocks writes head, and only the writer writes
+    // tail. Records head-tail through head-1 are waiting to be written.
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    private volatile long dropped = 0;
+    private volatile boolean recording = false;
+    // Set by tick while it runs, so stop can wait for a tick in progress.
+    private volatile boolean ticking = false;
+    private volatile boolean stopped = false;
+    private volatile IOException error = null;
+    private Thread writer = null;
+    // Encoding buffer, only touched by the writer.
+    private byte[] buf;
+    private int pos = 0;
+
+    /**
+     * Creates a recorder. Nothing is recorded until
+     * {@link Recorder#start()} is called.
+     * @param thread The thread whose time steps are recorded. For an
+     * activation group (see {@link BlockThread#group(Bool)}), records are
+     * taken every step of the thread running the group, active or not.
+     * @param out Where the recording is written. It's closed when recording
+     * stops.
+     * @param capacity How many records can wait to be written before new ones
+     * are dropped.
+     */
+    public Recorder(BlockThread thread, OutputStream out, int capacity) {
+        this.thread = thread;
+        this.out = out;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Adds a number to be recorded. Must be called before
+     * {@link Recorder#start()}.
+     * @param name What to call the channel.
+     * @param x The number.
+     */
+    public synchronized void record(String name, Num x) {
+        checkNotStarted();
+        numNames = append(numNames, name);
+        Num[] more = new Num[nums.length + 1];
+        System.arraycopy(nums, 0, more, 0, nums.length);
+        more[nums.length] = x;
+        nums = more;
+    }
+
+    /**
+     * Adds a boolean to be recorded. Must be called before
+     * {@link Recorder#start()}.
+     * @param name What to call the channel.
+     * @param p The boolean.
+     */
+    public synchronized void record(String name, Bool p) {
+        checkNotStarted();
+        boolNames = append(boolNames, name);
+        Bool[] more = new Bool[bools.length + 1];
+        System.arraycopy(bools, 0, more, 0, bools.length);
+        more[bools.length] = p;
+        bools = more;
+    }
+
+    private void checkNotStarted() {
+        if(writer != null) {
+            throw new RuntimeException("Recorder already started");
+        }
+    }
+
+    private static String[] append(String[] names, String name) {
+        String[] more = new String[names.length + 1];
+        System.arraycopy(names, 0, more, 0, names.length);
+        more[names.length] = name;
+        return more;
+    }
+
+    /**
+     * Starts recording at the end of every time step of the thread.
+     */
+    public synchronized void start() {
+        checkNotStarted();
+        ticks = new int[capacity];
+        times = new double[capacity];
+        ns = new double[nums.length][capacity];
+        bs = new boolean[bools.length][capacity];
+        int chunk = Math.min(capacity, MAX_CHUNK);
+        buf = new byte[4 + chunk*(12 + 8*nums.length)
+                       + bools.length*((chunk + 7) / 8)];
+        writer = new Thread() {
+            public void run() {
+                write();
+            }
+        };
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+        recording = true;
+        thread.addRecorder(this);
+    }
+
+    /**
+     * Stops recording. Records already taken are written, and then the stream
+     * is closed. If the thread is taking a record right now, waits for it to
+     * finish, so must not be called from inside a time step.
+     */
+    public synchronized void stop() {
+        if(writer == null || stopped) {
+            return;
+        }
+        // tick sets ticking before reading recording, and this clears
+        // recording before reading ticking, so either that tick sees it's
+        // stopped or this sees the tick and waits for it.
+        recording = false;
+        while(ticking) {
+            Thread.yield();
+        }
+        thread.removeRecorder(this);
+        // Only now is head final, so the writer can drain up to it.
+        stopped = true;
+    }
+
+    /**
+     * How many records were taken.
+     * @return The number of records, including ones not yet written.
+     */
+    public long getRecorded() {
+        return head;
+    }
+
+    /**
+     * How many records were dropped because the writer had fallen behind.
+     * @return The number of dropped records.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * What went wrong writing the recording, if anything. After an error,
+     * nothing more is written.
+     * @return The error, or {@code null} if there hasn't been one.
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Takes a record. Called by the owning {@link BlockThread} at the end of
+     * each time step.
+     */
+    void tick() {
+        ticking = true;
+        try {
+            if(recording) {
+                take();
+            }
+        }
+        finally {
+            ticking = false;
+        }
+    }
+
+    private void take() {
+        long h = head;
+        if(h - tail >= capacity) {
+            dropped++;
+            return;
+        }
+        int i = (int)(h % capacity);
+        ticks[i] = thread.ticks();
+        times[i] = thread.t().getN();
+        for(int c=0; c<nums.length; c++) {
+            ns[c][i] = nums[c].getN();
+        }
+        for(int c=0; c<bools.length; c++) {
+            bs[c][i] = bools[c].getB();
+        }
+        head = h + 1;
+    }
+
+    private void write() {
+        try {
+            pos = 0;
+            putInt(MAGIC);
+            putInt(VERSION);
+            flushBuf();
+            writeNames(numNames);
+            writeNames(boolNames);
+            while(true) {
+                // Read stopped before head so nothing taken before stopping is
+                // missed.
+                boolean last = stopped;
+                long n = head - tail;
+                if(n > 0) {
+                    writeChunk((int)Math.min(n, Math.min(capacity, MAX_CHUNK)));
+                }
+                else if(last) {
+                    break;
+                }
+                else {
+                    try {
+                        Thread.sleep(WRITER_SLEEP_MILLIS);
+                    }
+                    catch(InterruptedException e) {
+                        // Just check for records again.
+                    }
+                }
+            }
+            out.flush();
+        }
+        catch(IOException e) {
+            error = e;
+            recording = false;
+        }
+        finally {
+            try {
+                out.close();
+            }
+            catch(IOException e) {
+                if(error == null) {
+                    error = e;
+                }
+            }
+        }
+    }
+
+    private void writeNames(String[] names) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(names.length);
+        for(int i=0; i<names.length; i++) {
+            data.writeUTF(names[i]);
+        }
+        data.flush();
+    }
+
+    private void writeChunk(int n) throws IOException {
+        int start = (int)(tail % capacity);
+        pos = 0;
+        putInt(n);
+        for(int k=0; k<n; k++) {
+            putInt(ticks[(start + k) % capacity]);
+        }
+        for(int k=0; k<n; k++) {
+            putDouble(times[(start + k) % capacity]);
+        }
+        for(int c=0; c<ns.length; c++) {
+            double[] column = ns[c];
+            for(int k=0; k<n; k++) {
+                putDouble(column[(start + k) % capacity]);
+            }
+        }
+        for(int c=0; c<bs.length; c++) {
+            boolean[] column = bs[c];
+            for(int k=0; k<n; k+=8) {
+                int bits = 0;
+                for(int j=0; j<8 && k+j<n; j++) {
+                    if(column[(start + k + j) % capacity]) {
+                        bits |= 1 << j;
+                    }
+                }
+                buf[pos++] = (byte)bits;
+            }
+        }
+        // The slots are free for reuse as soon as they've been copied.
+        tail += n;
+        flushBuf();
+    }
+
+    private void flushBuf() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+
+    private void putInt(int x) {
+        buf[pos++] = (byte)(x >>> 24);
+        buf[pos++] = (byte)(x >>> 16);
+        buf[pos++] = (byte)(x >>> 8);
+        buf[pos++] = (byte)x;
+    }
+
+    private void putDouble(double x) {
+        long bits = Double.doubleToLongBits(x);
+        putInt((int)(bits >>> 32));
+        putInt((int)bits);
+    }
+}
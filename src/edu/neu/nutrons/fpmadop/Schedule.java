@@ -0,0 +1,363 @@
+package edu.neu.nutrons.fpmadop;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+/**
+ * Orders the blocks of a {@link BlockThread} so that each block is handled
+ * after the blocks whose values it reads. Block A feeds block B if A can be
+ * reached from {@link Block#inputNums()} or {@link Block#inputBools()} of B
+ * through stateless operators. Handling A first means B sees A's value from
+ * the current time step rather than the previous one.
+ *
+ * Feedback loops make this impossible for every block. A loop is broken at a
+ * {@link Numception}, which exists to add exactly that delay, or at the
+ * earliest added block of the loop if it contains none. Blocks with no
+ * dependencies between them keep the order they were added in, so the order is
+ * always the same for the same graph.
+ *
+ * @author Ziv
+ */
+class Schedule {
+
+    private Schedule() {}
+
+    /**
+     * For each block, the indices of the blocks it reads.
+     * @param blocks The blocks of a thread.
+     * @return {@code deps[i]} lists the blocks that {@code blocks[i]} reads.
+     */
+    static int[][] dependencies(Block[] blocks) {
+        Hashtable index = new Hashtable();
+        for(int i=0; i<blocks.length; i++) {
+            index.put(blocks[i], new Integer(i));
+        }
+        int[][] deps = new int[blocks.length][];
+        // The latest added block that doesn't say what it reads.
+        int undeclared = -1;
+        for(int i=0; i<blocks.length; i++) {
+            Hashtable seen = new Hashtable();
+            Hashtable found = new Hashtable();
+            Num[] xs = blocks[i].inputNums();
+            Bool[] ps = blocks[i].inputBools();
+            for(int j=0; j<xs.length; j++) {
+                visit(xs[j], index, seen, found);
+            }
+            for(int j=0; j<ps.length; j++) {
+                visit(ps[j], index, seen, found);
+            }
+            if(!blocks[i].declaresInputs()) {
+                // It might read anything added before it, so it stays after
+                // all of them. Everything before the previous such block is
+                // already before that one.
+                for(int j=Math.max(0, undeclared); j<i; j++) {
+                    Integer d = new Integer(j);
+                    found.put(d, d);
+                }
+                undeclared = i;
+            }
+            // A block reading itself is just reading last step's value.
+            found.remove(new Integer(i));
+            deps[i] = new int[found.size()];
+            int k = 0;
+            for(Enumeration e = found.keys(); e.hasMoreElements();) {
+                deps[i][k++] = ((Integer)e.nextElement()).intValue();
+            }
+        }
+        return deps;
+    }
+
+    private static void visit(Object o, Hashtable index, Hashtable seen,
+                              Hashtable found) {
+        if(o == null || seen.containsKey(o)) {
+            return;
+        }
+        seen.put(o, o);
+        Integer i = (Integer)index.get(o);
+        if(i == null && o instanceof Block) {
+            // A block in an activation group is read after the group runs.
+            BlockThread bt = ((Block)o).handler();
+            while(i == null && bt != null && bt.groupBlock() != null) {
+                i = (Integer)index.get(bt.groupBlock());
+                bt = bt.parent();
+            }
+        }
+        if(i != null) {
+            // Blocks are where the search stops; their own inputs are read in
+            // their handle(), not when their value is read.
+            found.put(i, i);
+        }
+        else if(o instanceof Node || unhandled(o)) {
+            Num[] xs = nums(o);
+            Bool[] ps = bools(o);
+            for(int j=0; j<xs.length; j++) {
+                visit(xs[j], index, seen, found);
+            }
+            for(int j=0; j<ps.length; j++) {
+                visit(ps[j], index, seen, found);
+            }
+        }
+    }
+
+    // A block that's never handled itself only changes when the blocks it
+    // reads are handled, so it's looked through like a stateless operator.
+    private static boolean unhandled(Object o) {
+        return o instanceof Block && ((Block)o).handler() == null;
+    }
+
+    private static Num[] nums(Object o) {
+        return (o instanceof Node) ? ((Node)o).nums() : ((Block)o).inputNums();
+    }
+
+    private static Bool[] bools(Object o) {
+        return (o instanceof Node) ? ((Node)o).bools()
+                                   : ((Block)o).inputBools();
+    }
+
+    /**
+     * Sorts blocks so that each comes after the blocks it reads.
+     * @param blocks The blocks of a thread, in the order they were added.
+     * @return The same blocks in the order they should be handled.
+     */
+    static Block[] order(Block[] blocks) {
+        int n = blocks.length;
+        int[][] deps = dependencies(blocks);
+        // Invert the dependencies so we know who is waiting on each block.
+        int[] waiting = new int[n];
+        int[] count = new int[n];
+        for(int i=0; i<n; i++) {
+            waiting[i] = deps[i].length;
+            for(int j=0; j<deps[i].length; j++) {
+                count[deps[i][j]]++;
+            }
+        }
+        int[][] readers = new int[n][];
+        for(int i=0; i<n; i++) {
+            readers[i] = new int[count[i]];
+            count[i] = 0;
+        }
+        for(int i=0; i<n; i++) {
+            for(int j=0; j<deps[i].length; j++) {
+                int d = deps[i][j];
+                readers[d][count[d]++] = i;
+            }
+        }
+        // Kahn's algorithm, always taking the earliest added ready block.
+        Block[] order = new Block[n];
+        boolean[] done = new boolean[n];
+        int[] heap = new int[n];
+        int heapSize = 0;
+        for(int i=0; i<n; i++) {
+            if(waiting[i] == 0) {
+                heapSize = push(heap, heapSize, i);
+            }
+        }
+        for(int k=0; k<n; k++) {
+            int next;
+            if(heapSize == 0) {
+                next = breakLoop(blocks, deps, done);
+            }
+            else {
+                next = heap[0];
+                heapSize = pop(heap, heapSize);
+            }
+            done[next] = true;
+            order[k] = blocks[next];
+            for(int j=0; j<readers[next].length; j++) {
+                int r = readers[next][j];
+                waiting[r]--;
+                if(waiting[r] == 0 && !done[r]) {
+                    heapSize = push(heap, heapSize, r);
+                }
+            }
+        }
+        return order;
+    }
+
+    // Every remaining block waits on another, so at least one block in a loop
+    // must read a value from the previous step. Prefers a Numception.
+    private static int breakLoop(Block[] blocks, int[][] deps, boolean[] done) {
+        int first = -1;
+        for(int i=0; i<blocks.length; i++) {
+            if(!done[i] && onLoop(i, deps, done)) {
+                if(blocks[i] instanceof Numception) {
+                    return i;
+                }
+                if(first < 0) {
+                    first = i;
+                }
+            }
+        }
+        return first;
+    }
+
+    // Whether a block that hasn't been handled depends on itself through
+    // other blocks that haven't been handled.
+    private static boolean onLoop(int start, int[][] deps, boolean[] done) {
+        boolean[] seen = new boolean[deps.length];
+        int[] stack = new int[deps.length];
+        int size = 0;
+        stack[size++] = start;
+        while(size > 0) {
+            int i = stack[--size];
+            for(int j=0; j<deps[i].length; j++) {
+                int d = deps[i][j];
+                if(d == start) {
+                    return true;
+                }
+                if(!done[d] && !seen[d]) {
+                    seen[d] = true;
+                    stack[size++] = d;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits ordered blocks among workers so that blocks that could affect
+     * each other always go to the same worker. Two blocks are connected if one
+     * reads the other or if both read a common object (a stateless operator,
+     * a sensor, etc.) that might not be safe to use from two threads at once.
+     * A block that doesn't declare its inputs might read anything, so it
+     * connects every block. Each worker's blocks stay in the order given.
+     * @param blocks Blocks in the order they should be handled.
+     * @param shared Objects that are safe for any number of threads to read
+     * at once, which don't connect the blocks that read them.
+     * @param workers The number of workers.
+     * @return {@code work[i]} is the list of blocks for worker {@code i}.
+     */
+    static Block[][] partition(Block[] blocks, Object[] shared, int workers) {
+        int n = blocks.length;
+        int[] parent = new int[n];
+        Hashtable owner = new Hashtable();
+        for(int i=0; i<n; i++) {
+            parent[i] = i;
+            owner.put(blocks[i], new Integer(i));
+        }
+        for(int i=0; i<shared.length; i++) {
+            owner.put(shared[i], new Integer(-1));
+        }
+        for(int i=0; i<n; i++) {
+            if(!blocks[i].declaresInputs()) {
+                for(int j=0; j<n; j++) {
+                    parent[find(parent, j)] = find(parent, i);
+                }
+                break;
+            }
+        }
+        for(int i=0; i<n; i++) {
+            Num[] xs = blocks[i].inputNums();
+            Bool[] ps = blocks[i].inputBools();
+            for(int j=0; j<xs.length; j++) {
+                connect(i, xs[j], owner, parent);
+            }
+            for(int j=0; j<ps.length; j++) {
+                connect(i, ps[j], owner, parent);
+            }
+        }
+        // Size each component, then hand whole components to whichever worker
+        // has the fewest blocks so far.
+        int[] size = new int[n];
+        for(int i=0; i<n; i++) {
+            size[find(parent, i)]++;
+        }
+        int[] load = new int[workers];
+        int[] worker = new int[n];
+        for(int i=0; i<n; i++) {
+            if(size[i] > 0) {
+                int best = 0;
+                for(int w=1; w<workers; w++) {
+                    if(load[w] < load[best]) {
+                        best = w;
+                    }
+                }
+                load[best] += size[i];
+                worker[i] = best;
+            }
+        }
+        Block[][] work = new Block[workers][];
+        for(int w=0; w<workers; w++) {
+            work[w] = new Block[load[w]];
+            load[w] = 0;
+        }
+        for(int i=0; i<n; i++) {
+            int w = worker[find(parent, i)];
+            work[w][load[w]++] = blocks[i];
+        }
+        return work;
+    }
+
+    private static void connect(int i, Object o, Hashtable owner,
+                                int[] parent) {
+        if(o == null) {
+            return;
+        }
+        Integer prev = (Integer)owner.get(o);
+        if(prev != null) {
+            // Either a shared object, a block, or something already claimed by
+            // some block's search.
+            if(prev.intValue() >= 0) {
+                parent[find(parent, i)] = find(parent, prev.intValue());
+            }
+            return;
+        }
+        owner.put(o, new Integer(i));
+        if(o instanceof Node || unhandled(o)) {
+            Num[] xs = nums(o);
+            Bool[] ps = bools(o);
+            for(int j=0; j<xs.length; j++) {
+                connect(i, xs[j], owner, parent);
+            }
+            for(int j=0; j<ps.length; j++) {
+                connect(i, ps[j], owner, parent);
+            }
+        }
+    }
+
+    // Union-find with path halving.
+    private static int find(int[] parent, int i) {
+        while(parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    // A binary min-heap of indices.
+    private static int push(int[] heap, int size, int x) {
+        int i = size;
+        heap[i] = x;
+        while(i > 0 && heap[(i-1)/2] > heap[i]) {
+            int parent = (i-1)/2;
+            heap[i] = heap[parent];
+            heap[parent] = x;
+            i = parent;
+        }
+        return size + 1;
+    }
+
+    private static int pop(int[] heap, int size) {
+        size--;
+        int x = heap[size];
+        int i = 0;
+        while(true) {
+            int child = 2*i + 1;
+            if(child >= size) {
+                break;
+            }
+            if(child + 1 < size && heap[child+1] < heap[child]) {
+                child++;
+            }
+            if(heap[child] >= x) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        if(size > 0) {
+            heap[i] = x;
+        }
+        return size;
+    }
+}
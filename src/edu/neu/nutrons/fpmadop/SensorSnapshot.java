@@ -0,0 +1,161 @@
+package edu.neu.nutrons.fpmadop;
+
+import java.util.Hashtable;
+
+/**
+ * Reads sensors once per time step. Each {@link BlockThread} has a snapshot
+ * (see {@link BlockThread#snapshot()}) that samples every sensor added to it
+ * at the start of each step, right after the thread's clock ticks and before
+ * any block is handled. What {@link SensorSnapshot#add(Num)} returns reads the
+ * sampled value, so a sensor used by many parts of a graph is only read from
+ * the hardware once, and every part sees the same value for the whole step.
+ *
+ * The classes in {@code wpiclone} add themselves to a snapshot when they are
+ * given a thread. Sensors should be added before the thread starts running;
+ * one added while it runs may read a value from the previous step for one
+ * step.
+ *
+ * @author Ziv
+ */
+public class SensorSnapshot {
+
+    private static class NumSample implements Num {
+        private SensorSnapshot s;
+        private int i;
+        private NumSample(SensorSnapshot s, int i) {
+            this.s = s;
+            this.i = i;
+        }
+        public double getN() {
+            return s.ns[i];
+        }
+    }
+
+    private static class BoolSample implements Bool {
+        private SensorSnapshot s;
+        private int i;
+        private BoolSample(SensorSnapshot s, int i) {
+            this.s = s;
+            this.i = i;
+        }
+        public boolean getB() {
+            return s.bs[i];
+        }
+    }
+
+    private final Object lock = new Object();
+    // Replaced, never modified, when a sensor is added, so sampling never
+    // waits on a lock.
+    private volatile Num[] nums = new Num[0];
+    private volatile double[] ns = new double[0];
+    private volatile Bool[] bools = new Bool[0];
+    private volatile boolean[] bs = new boolean[0];
+    private volatile Object[] samples = new Object[0];
+    private Hashtable added = new Hashtable();
+
+    SensorSnapshot() {}
+
+    /**
+     * Samples a number at the start of every time step.
+     * @param x The number, usually a sensor.
+     * @return A {@link Num} whose {@link Num#getN()} method returns the value
+     * {@code x.getN()} had at the start of the current step. Adding the same
+     * number again returns the same sample.
+     */
+    public Num add(Num x) {
+        synchronized(lock) {
+            Num sample = (Num)added.get(x);
+            if(sample != null) {
+                return sample;
+            }
+            int n = nums.length;
+            Num[] moreNums = new Num[n + 1];
+            System.arraycopy(nums, 0, moreNums, 0, n);
+            moreNums[n] = x;
+            double[] moreNs = new double[n + 1];
+            System.arraycopy(ns, 0, moreNs, 0, n);
+            // Read once now so the sample has a value before the next step.
+            moreNs[n] = x.getN();
+            ns = moreNs;
+            nums = moreNums;
+            sample = new NumSample(this, n);
+            addSample(sample);
+            added.put(x, sample);
+            return sample;
+        }
+    }
+
+    /**
+     * Samples a boolean at the start of every time step.
+     * @param p The boolean, usually a sensor or button.
+     * @return A {@link Bool} whose {@link Bool#getB()} method returns the
+     * value {@code p.getB()} had at the start of the current step. Adding the
+     * same boolean again returns the same sample.
+     */
+    public Bool add(Bool p) {
+        synchronized(lock) {
+            Bool sample = (Bool)added.get(p);
+            if(sample != null) {
+                return sample;
+            }
+            int n = bools.length;
+            Bool[] moreBools = new Bool[n + 1];
+            System.arraycopy(bools, 0, moreBools, 0, n);
+            moreBools[n] = p;
+            boolean[] moreBs = new boolean[n + 1];
+            System.arraycopy(bs, 0, moreBs, 0, n);
+            moreBs[n] = p.getB();
+            bs = moreBs;
+            bools = moreBools;
+            sample = new BoolSample(this, n);
+            addSample(sample);
+            added.put(p, sample);
+            return sample;
+        }
+    }
+
+    private void addSample(Object sample) {
+        Object[] more = new Object[samples.length + 1];
+        System.arraycopy(samples, 0, more, 0, samples.length);
+        more[samples.length] = sample;
+        samples = more;
+    }
+
+    /**
+     * How many sensors are sampled.
+     * @return The number of numbers and booleans added.
+     */
+    public int size() {
+        return nums.length + bools.length;
+    }
+
+    /**
+     * Everything {@link SensorSnapshot#add(Num)} and
+     * {@link SensorSnapshot#add(Bool)} have returned. They're only read during
+     * a step, so they don't tie together the blocks that use them.
+     * @return The samples.
+     */
+    Object[] samples() {
+        return samples;
+    }
+
+    /**
+     * Reads every sensor. Called by the owning {@link BlockThread} at the
+     * start of each step.
+     */
+    void sample() {
+        Num[] xs = nums;
+        double[] values = ns;
+        // A sensor added since nums was read isn't in it yet.
+        int n = Math.min(xs.length, values.length);
+        for(int i=0; i<n; i++) {
+            values[i] = xs[i].getN();
+        }
+        Bool[] ps = bools;
+        boolean[] truths = bs;
+        n = Math.min(ps.length, truths.length);
+        for(int i=0; i<n; i++) {
+            truths[i] = ps[i].getB();
+        }
+    }
+}
@@ -1,12 +1,21 @@
 package edu.neu.nutrons.fpmadop;
 
 /**
- * A {@link Block} that only runs when a specified {@link Bool} is true.
+ * A {@link Block} that only runs when a specified {@link Bool} is true. It is
+ * handled by the thread's activation group for that boolean (see
+ * {@link BlockThread#group(Bool)}), so while the boolean is false it isn't
+ * called at all, and blocks sharing the same boolean check it only once per
+ * time step between them. {@link Block#getThread()} is still the thread it
+ * was given.
  *
  * @author Ziv
  */
 public abstract class SometimesBlock extends Block {
 
+    // Shared, so every block that is only active when enabled is in the same
+    // group.
+    private static final Bool ENABLED = BoolFunc.not(MatchState.Mode.DISABLED);
+
     private Bool active;
 
     /**
@@ -15,8 +24,9 @@ public abstract class SometimesBlock extends Block {
      * @param thread The thread to be handled by.
      */
     protected SometimesBlock(Bool active, BlockThread thread) {
-        super(thread);
+        super(null);
         this.active = active;
+        setThread(thread);
     }
 
     /**
@@ -24,7 +34,11 @@ public abstract class SometimesBlock extends Block {
      * @param thread The thread to be handled by.
      */
     protected SometimesBlock(BlockThread thread) {
-        this(BoolFunc.not(MatchState.Mode.DISABLED), thread);
+        this(ENABLED, thread);
+    }
+
+    BlockThread handledBy(BlockThread thread) {
+        return thread.group(active);
     }
 
     /**
@@ -34,8 +48,7 @@ public abstract class SometimesBlock extends Block {
     protected abstract void sometimesHandle();
 
     protected final void handle() {
-        if(active.getB()) {
-            sometimesHandle();
-        }
+        // Only called when the group is active.
+        sometimesHandle();
     }
 }
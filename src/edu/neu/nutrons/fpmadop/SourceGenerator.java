@@ -0,0 +1,258 @@
+package edu.neu.nutrons.fpmadop;
+
+/**
+ * Turns a graph of {@link NumFunc} and {@link BoolFunc} operators into the
+ * Java source of a single class. The generated class implements {@link Num}
+ * (or {@link Bool}), and its one method evaluates the whole graph in straight
+ * line code with every operator inlined, which the compiler and VM can
+ * optimize far better than a web of small objects.
+ *
+ * The robot VM can't load classes at run time, so the generated source is
+ * meant to be saved and compiled into the project like any other class. Its
+ * constructor takes the graph's leaves, given by
+ * {@link SourceGenerator#numLeaves()} and {@link SourceGenerator#boolLeaves()}.
+ * Leaves are anything that isn't a stateless operator (sensors, blocks,
+ * user-defined numbers, etc.), and are still read through their own
+ * {@link Num#getN()} and {@link Bool#getB()} methods.
+ *
+ * @author Ziv
+ */
+public class SourceGenerator {
+
+    private Program program;
+    private boolean isBool;
+
+    /**
+     * Prepares to generate the source for a graph whose output is a number.
+     * @param x The root of the graph.
+     */
+    public SourceGenerator(Num x) {
+        // A program without a thread is never handled; we only want its code.
+        program = Program.compile(x, null);
+        isBool = false;
+    }
+
+    /**
+     * Prepares to generate the source for a graph whose output is a boolean.
+     * @param p The root of the graph.
+     */
+    public SourceGenerator(Bool p) {
+        program = Program.compile(p, null);
+        isBool = true;
+    }
+
+    /**
+     * The numeric leaves of the graph, in the order the generated class's
+     * constructor expects them.
+     * @return The leaves.
+     */
+    public Num[] numLeaves() {
+        return program.numLeaves;
+    }
+
+    /**
+     * The boolean leaves of the graph, in the order the generated class's
+     * constructor expects them.
+     * @return The leaves.
+     */
+    public Bool[] boolLeaves() {
+        return program.boolLeaves;
+    }
+
+    /**
+     * Generates the source of the class. Given leaves {@code xs} and
+     * {@code ps} from this generator, {@code new ClassName(xs, ps)} is
+     * equivalent to the original graph.
+     * @param packageName The package the class will be in.
+     * @param className The name of the class.
+     * @return The contents of a Java source file.
+     */
+    public String source(String packageName, String className) {
+        String fp = "edu.neu.nutrons.fpmadop.";
+        StringBuffer sb = new StringBuffer();
+        sb.append("package ").append(packageName).append(";\n\n");
+        sb.append("/**\n * Generated by ").append(fp)
+          .append("SourceGenerator. Do not edit.\n */\n");
+        sb.append("public class ").append(className).append(" implements ")
+          .append(fp).append(isBool ? "Bool" : "Num").append(" {\n\n");
+        // Leaves go in fields so the generated method has no array accesses.
+        for(int i=0; i<program.numLeaves.length; i++) {
+            sb.append("    private final ").append(fp).append("Num x")
+              .append(i).append(";\n");
+        }
+        for(int i=0; i<program.boolLeaves.length; i++) {
+            sb.append("    private final ").append(fp).append("Bool p")
+              .append(i).append(";\n");
+        }
+        sb.append("\n    public ").append(className).append("(").append(fp)
+          .append("Num[] xs, ").append(fp).append("Bool[] ps) {\n");
+        for(int i=0; i<program.numLeaves.length; i++) {
+            sb.append("        x").append(i).append(" = xs[").append(i)
+              .append("];\n");
+        }
+        for(int i=0; i<program.boolLeaves.length; i++) {
+            sb.append("        p").append(i).append(" = ps[").append(i)
+              .append("];\n");
+        }
+        sb.append("    }\n\n");
+        sb.append(isBool ? "    public boolean getB() {\n"
+                         : "    public double getN() {\n");
+        // Constants are never written by an instruction, so declare them all
+        // up front.
+        boolean[] written = new boolean[program.ns.length];
+        boolean[] bWritten = new boolean[program.bs.length];
+        int[] code = program.code;
+        for(int pc = 0; pc < code.length; pc += 3 + code[pc+2]) {
+            if(isBoolOp(code[pc])) {
+                bWritten[code[pc+1]] = true;
+            }
+            else {
+                written[code[pc+1]] = true;
+            }
+        }
+        for(int i=0; i<written.length; i++) {
+            if(!written[i]) {
+                sb.append("        final double n").append(i).append(" = ")
+                  .append(literal(program.ns[i])).append(";\n");
+            }
+        }
+        for(int i=0; i<bWritten.length; i++) {
+            if(!bWritten[i]) {
+                sb.append("        final boolean b").append(i).append(" = ")
+                  .append(program.bs[i]).append(";\n");
+            }
+        }
+        for(int pc = 0; pc < code.length; pc += 3 + code[pc+2]) {
+            statement(sb, pc);
+        }
+        sb.append("        return ").append(isBool ? "b" : "n")
+          .append(program.root).append(";\n");
+        sb.append("    }\n}\n");
+        return sb.toString();
+    }
+
+    private static boolean isBoolOp(int op) {
+        return op == Program.LOAD_B || op == Node.NOT || op == Node.OR
+               || op == Node.AND || op == Node.XOR || op == Node.IN_RANGE;
+    }
+
+    private static String literal(double x) {
+        if(Double.isNaN(x)) {
+            return "Double.NaN";
+        }
+        else if(x == Double.POSITIVE_INFINITY) {
+            return "Double.POSITIVE_INFINITY";
+        }
+        else if(x == Double.NEGATIVE_INFINITY) {
+            return "Double.NEGATIVE_INFINITY";
+        }
+        return "(" + Double.toString(x) + ")";
+    }
+
+    private void statement(StringBuffer sb, int pc) {
+        int[] code = program.code;
+        int op = code[pc];
+        int dst = code[pc+1];
+        int argc = code[pc+2];
+        int a = pc + 3;
+        if(isBoolOp(op)) {
+            sb.append("        final boolean b").append(dst).append(" = ");
+        }
+        else {
+            sb.append("        final double n").append(dst).append(" = ");
+        }
+        switch(op) {
+            case Program.LOAD_N:
+                sb.append("x").append(code[a]).append(".getN()");
+                break;
+            case Program.LOAD_B:
+                sb.append("p").append(code[a]).append(".getB()");
+                break;
+            case Node.SUM:
+                // Starting from zero matches the interpreted sum exactly.
+                sb.append("0.0");
+                for(int i=0; i<argc; i++) {
+                    sb.append(" + n").append(code[a+i]);
+                }
+                break;
+            case Node.PROD:
+                sb.append("1.0");
+                for(int i=0; i<argc; i++) {
+                    sb.append(" * n").append(code[a+i]);
+                }
+                break;
+            case Node.DIFF:
+                sb.append("n").append(code[a]).append(" - n")
+                  .append(code[a+1]);
+                break;
+            case Node.QUOT:
+                // Same 0/0 hack as NumFunc.quot.
+                sb.append("(n").append(code[a+1]).append(" == 0.0 && Math.abs(n")
+                  .append(code[a]).append(") < 0.0001) ? 1.0 : n")
+                  .append(code[a]).append(" / n").append(code[a+1]);
+                break;
+            case Node.BOOL_TO_NUM:
+                sb.append("b").append(code[a]).append(" ? 1.0 : 0.0");
+                break;
+            case Node.LIMIT:
+                sb.append("Math.max(Math.min(n").append(code[a+2])
+                  .append(", n").append(code[a+1]).append("), n")
+                  .append(code[a]).append(")");
+                break;
+            case Node.DEADBAND:
+                sb.append("(n").append(code[a+2]).append(" < n").append(code[a])
+                  .append(" + n").append(code[a+1]).append(" && n")
+                  .append(code[a+2]).append(" > n").append(code[a])
+                  .append(" - n").append(code[a+1]).append(") ? n")
+                  .append(code[a]).append(" : n").append(code[a+2]);
+                break;
+            case Node.MAX:
+            case Node.MIN: {
+                String f = (op == Node.MAX) ? "Math.max(" : "Math.min(";
+                StringBuffer expr = new StringBuffer((op == Node.MAX)
+                        ? "Double.NEGATIVE_INFINITY" : "Double.POSITIVE_INFINITY");
+                for(int i=0; i<argc; i++) {
+                    expr.insert(0, f);
+                    expr.append(", n").append(code[a+i]).append(")");
+                }
+                sb.append(expr.toString());
+                break;
+            }
+            case Node.NUM_MUX: {
+                // Rounds the selector like Multiplexer#getChoice(), then picks
+                // with a chain of conditionals.
+                int n = argc - 1;
+                String i = "((int)(0.5 + Math.max(Math.min(n" + code[a] + ", "
+                           + (n - 1) + ".0), 0.0)))";
+                for(int k=0; k<n-1; k++) {
+                    sb.append("(").append(i).append(" == ").append(k)
+                      .append(") ? n").append(code[a+1+k]).append(" : ");
+                }
+                sb.append("n").append(code[a+n]);
+                break;
+            }
+            case Node.NOT:
+                sb.append("!b").append(code[a]);
+                break;
+            case Node.OR:
+            case Node.AND: {
+                String join = (op == Node.OR) ? " || " : " && ";
+                sb.append((op == Node.OR) ? "false" : "true");
+                for(int i=0; i<argc; i++) {
+                    sb.append(join).append("b").append(code[a+i]);
+                }
+                break;
+            }
+            case Node.XOR:
+                sb.append("b").append(code[a]).append(" != b")
+                  .append(code[a+1]);
+                break;
+            case Node.IN_RANGE:
+                sb.append("n").append(code[a]).append(" <= n")
+                  .append(code[a+2]).append(" && n").append(code[a+2])
+                  .append(" <= n").append(code[a+1]);
+                break;
+        }
+        sb.append(";\n");
+    }
+}
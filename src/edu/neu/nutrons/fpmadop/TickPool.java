@@ -0,0 +1,195 @@
+package edu.neu.nutrons.fpmadop;
+
+/**
+ * A fixed set of threads that handle a {@link BlockThread}'s blocks in
+ * parallel. The thread calling {@link TickPool#tick()} acts as the first
+ * worker, and the call returns only once every worker has finished its blocks,
+ * so a time step still ends with every block handled.
+ *
+ * CLDC has no daemon threads, so a worker that hasn't been given a step for
+ * {@link TickPool#IDLE_MILLIS} exits on its own and is started again by the
+ * next tick. An idle pool never keeps the VM from exiting for long.
+ *
+ * @author Ziv
+ */
+class TickPool {
+
+    /**
+     * How long in milliseconds a worker waits for a step before exiting.
+     */
+    static final long IDLE_MILLIS = 1000;
+
+    private Block[][] work;
+    // Whether each worker, other than the caller of tick, has a live thread.
+    private boolean[] running;
+    private int generation = 0;
+    private int pending = 0;
+    private boolean stopped = false;
+    private Profile timed = null;
+    private Throwable failure = null;
+
+    /**
+     * Creates and starts the worker threads.
+     * @param workers The total number of workers, including the caller of
+     * {@link TickPool#tick()}.
+     */
+    TickPool(int workers) {
+        work = new Block[workers][];
+        for(int i=0; i<workers; i++) {
+            work[i] = new Block[0];
+        }
+        running = new boolean[workers];
+        for(int i=1; i<workers; i++) {
+            startWorker(i, 0);
+        }
+    }
+
+    // Must be called while holding the lock.
+    private void startWorker(final int id, final int seen) {
+        running[id] = true;
+        Thread worker = new Thread() {
+            public void run() {
+                workerLoop(id, seen);
+            }
+        };
+        worker.setPriority(Thread.currentThread().getPriority());
+        worker.start();
+    }
+
+    /**
+     * The number of workers, including the caller of {@link TickPool#tick()}.
+     * @return The number of workers.
+     */
+    int workers() {
+        return work.length;
+    }
+
+    /**
+     * Sets which blocks each worker handles. Must only be called between
+     * ticks, by the thread that calls {@link TickPool#tick()}.
+     * @param work {@code work[i]} is the list of blocks for worker {@code i}.
+     */
+    synchronized void assign(Block[][] work) {
+        this.work = work;
+    }
+
+    /**
+     * Handles every block once and waits for all workers to finish. If any
+     * block throws, the first thing thrown is rethrown here once every worker
+     * is done, wrapped in a {@link RuntimeException} only if it is neither
+     * that nor an {@link Error}.
+     * @param timed The {@link Profile} that times each block, or {@code null}
+     * for none.
+     */
+    void tick(Profile timed) {
+        Block[] mine;
+        synchronized(this) {
+            this.timed = timed;
+            generation++;
+            pending = work.length - 1;
+            for(int i=1; i<work.length; i++) {
+                if(!running[i]) {
+                    startWorker(i, generation - 1);
+                }
+            }
+            mine = work[0];
+            notifyAll();
+        }
+        Throwable thrown = null;
+        try {
+            handle(mine, timed);
+        }
+        catch(Throwable e) {
+            thrown = e;
+        }
+        synchronized(this) {
+            while(pending > 0) {
+                try {
+                    wait();
+                }
+                catch(InterruptedException e) {
+                    // Keep waiting; the step isn't over until everyone's done.
+                }
+            }
+            if(thrown == null) {
+                thrown = failure;
+            }
+            failure = null;
+        }
+        if(thrown instanceof RuntimeException) {
+            throw (RuntimeException)thrown;
+        }
+        if(thrown instanceof Error) {
+            throw (Error)thrown;
+        }
+        if(thrown != null) {
+            throw new RuntimeException(thrown.toString());
+        }
+    }
+
+    /**
+     * Stops the worker threads once they finish what they're doing.
+     */
+    synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    private static void handle(Block[] blocks, Profile timed) {
+        if(timed != null) {
+            timed.handle(blocks);
+            return;
+        }
+        for(int i=0; i<blocks.length; i++) {
+            blocks[i].handle();
+        }
+    }
+
+    private void workerLoop(int id, int seen) {
+        while(true) {
+            Block[] mine;
+            Profile timed;
+            synchronized(this) {
+                long idleSince = System.currentTimeMillis();
+                while(generation == seen && !stopped) {
+                    long left = idleSince + IDLE_MILLIS
+                                - System.currentTimeMillis();
+                    if(left <= 0) {
+                        // The next tick starts a new thread for this worker.
+                        running[id] = false;
+                        return;
+                    }
+                    try {
+                        wait(left);
+                    }
+                    catch(InterruptedException e) {
+                        // Check again.
+                    }
+                }
+                if(stopped) {
+                    running[id] = false;
+                    return;
+                }
+                seen = generation;
+                mine = work[id];
+                timed = this.timed;
+            }
+            Throwable thrown = null;
+            try {
+                handle(mine, timed);
+            }
+            catch(Throwable e) {
+                thrown = e;
+            }
+            synchronized(this) {
+                if(thrown != null && failure == null) {
+                    failure = thrown;
+                }
+                pending--;
+                if(pending == 0) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package edu.neu.nutrons.fpmadop;
+
+/**
+ * Watches a {@link Bool} for changes and calls listeners when it becomes true
+ * (rises), becomes false (falls) or either. There is only ever one trigger
+ * per {@link Bool} per {@link BlockThread}, shared by everything that reacts
+ * to it, so a button with many bindings is still only read and compared once
+ * per time step, and a binding costs nothing until the button changes.
+ *
+ * Listeners are called while the trigger is handled, in the thread's time
+ * step, so they should be quick. Blocks that read the trigger are handled
+ * after it and see what the listeners did in the same step. The value before
+ * the first step is assumed to be false.
+ *
+ * With {@link BlockThread#setParallelism(int)}, listeners run on whichever
+ * worker handles the trigger, and the thread can't see what a listener
+ * touches. A listener must only change state that is read through the
+ * trigger: its own, or that of blocks that read the trigger (as
+ * {@link BoolFunc#toggle(Bool, BlockThread)} does). Those are always handled
+ * by the same worker. Changing any other block may race with the worker
+ * handling it.
+ *
+ * As a {@link Bool}, a trigger is true for the step right after its input
+ * changed.
+ *
+ * @author Ziv
+ */
+public class Trigger extends BoolBlock {
+
+    private static final Runnable[] NONE = {};
+
+    private Bool p;
+    private boolean last = false;
+    private boolean cur = false;
+    // Copied on write so handle reads them without a lock.
+    private volatile Runnable[] onRise = NONE;
+    private volatile Runnable[] onFall = NONE;
+    private volatile Runnable[] onChange = NONE;
+
+    private Trigger(Bool p, BlockThread thread) {
+        super(thread);
+        this.p = p;
+    }
+
+    /**
+     * The trigger watching a boolean.
+     * @param p A boolean.
+     * @param thread The {@link BlockThread} which determines how frequently
+     * samples are taken.
+     * @return The one trigger for {@code p} in {@code thread}, created the
+     * first time it's asked for.
+     */
+    public static Trigger of(Bool p, BlockThread thread) {
+        if(thread == null) {
+            return new Trigger(p, null);
+        }
+        synchronized(thread.triggers) {
+            Trigger t = (Trigger)thread.triggers.get(p);
+            if(t == null) {
+                t = new Trigger(p, thread);
+                thread.triggers.put(p, t);
+            }
+            return t;
+        }
+    }
+
+    /**
+     * The trigger watching a boolean in {@link BlockThread#main()}.
+     * @param p A boolean.
+     * @return The one trigger for {@code p} in the main thread.
+     */
+    public static Trigger of(Bool p) {
+        return of(p, BlockThread.main());
+    }
+
+    private static Runnable[] with(Runnable[] rs, Runnable r) {
+        Runnable[] more = new Runnable[rs.length + 1];
+        System.arraycopy(rs, 0, more, 0, rs.length);
+        more[rs.length] = r;
+        return more;
+    }
+
+    private static Runnable[] without(Runnable[] rs, Runnable r) {
+        int n = 0;
+        for(int i=0; i<rs.length; i++) {
+            if(rs[i] != r) {
+                n++;
+            }
+        }
+        if(n == rs.length) {
+            return rs;
+        }
+        Runnable[] fewer = new Runnable[n];
+        n = 0;
+        for(int i=0; i<rs.length; i++) {
+            if(rs[i] != r) {
+                fewer[n++] = rs[i];
+            }
+        }
+        return fewer;
+    }
+
+    /**
+     * Calls a listener whenever the input becomes true.
+     * @param r The listener.
+     */
+    public synchronized void onRise(Runnable r) {
+        onRise = with(onRise, r);
+    }
+
+    /**
+     * Calls a listener whenever the input becomes false.
+     * @param r The listener.
+     */
+    public synchronized void onFall(Runnable r) {
+        onFall = with(onFall, r);
+    }
+
+    /**
+     * Calls a listener whenever the input changes.
+     * @param r The listener.
+     */
+    public synchronized void onChange(Runnable r) {
+        onChange = with(onChange, r);
+    }
+
+    /**
+     * Stops calling a listener for any kind of change.
+     * @param r The listener.
+     */
+    public synchronized void remove(Runnable r) {
+        onRise = without(onRise, r);
+        onFall = without(onFall, r);
+        onChange = without(onChange, r);
+    }
+
+    private static void fire(Runnable[] rs) {
+        for(int i=0; i<rs.length; i++) {
+            rs[i].run();
+        }
+    }
+
+    protected void handle() {
+        last = cur;
+        cur = p.getB();
+        if(cur == last) {
+            return;
+        }
+        fire(cur ? onRise : onFall);
+        fire(onChange);
+    }
+
+    protected Bool[] inputBools() {
+        Bool[] ps = {p};
+        return ps;
+    }
+
+    /**
+     * Whether the input just became true.
+     * @return True for the step right after the input became true.
+     */
+    public boolean rose() {
+        return cur && !last;
+    }
+
+    /**
+     * Whether the input just became false.
+     * @return True for the step right after the input became false.
+     */
+    public boolean fell() {
+        return last && !cur;
+    }
+
+    public boolean getB() {
+        return cur != last;
+    }
+}
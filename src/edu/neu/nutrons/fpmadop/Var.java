@@ -58,13 +58,21 @@ public class Var extends NumBlock {
         }
     }
 
+    private void addSignal(SetSignal s) {
+        signals.addElement(s);
+        // What this reads changed, so the handling order may have too.
+        if(handler() != null) {
+            handler().reschedule();
+        }
+    }
+
     /**
      * When the given signal is true, will set this number to the given number.
      * @param signal A boolean.
      * @param x A number.
      */
     public void addSet(Bool signal, Num x) {
-        signals.addElement(new SetSignal(signal, x));
+        addSignal(new SetSignal(signal, x));
     }
 
     /**
@@ -82,7 +90,7 @@ public class Var extends NumBlock {
      * @param x A number.
      */
     public void addPlus(Bool signal, Num x) {
-        signals.addElement(new AddSignal(signal, x));
+        addSignal(new AddSignal(signal, x));
     }
 
     /**
@@ -101,7 +109,7 @@ public class Var extends NumBlock {
      * @param x A number.
      */
     public void addMult(Bool signal, Num x) {
-        signals.addElement(new MultSignal(signal, x));
+        addSignal(new MultSignal(signal, x));
     }
 
     /**
@@ -127,4 +135,20 @@ public class Var extends NumBlock {
     public double getN() {
         return curX;
     }
+
+    protected Num[] inputNums() {
+        Num[] xs = new Num[signals.size()];
+        for(int i=0; i<xs.length; i++) {
+            xs[i] = ((SetSignal)signals.elementAt(i)).x;
+        }
+        return xs;
+    }
+
+    protected Bool[] inputBools() {
+        Bool[] ps = new Bool[signals.size()];
+        for(int i=0; i<ps.length; i++) {
+            ps[i] = ((SetSignal)signals.elementAt(i)).signal;
+        }
+        return ps;
+    }
 }
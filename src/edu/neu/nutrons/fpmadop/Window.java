@@ -0,0 +1,392 @@
+package edu.neu.nutrons.fpmadop;
+
+/**
+ * Statistics of the most recent values of a {@link Num}: sum, mean, variance,
+ * minimum, maximum and median. Values are kept in a single ring buffer and
+ * every statistic is updated once per time step, in {@link Window#handle()}.
+ * Sum, mean and variance are running sums, and minimum and maximum are kept in
+ * monotonic queues, so each takes constant time per step no matter how long
+ * the window is. The median keeps a sorted copy of the window, which is only
+ * made once the median is first asked for.
+ *
+ * Each value can be given a weight, such as the length of the time step it was
+ * taken over, which the sum, mean and variance are weighted by. Minimum,
+ * maximum and median ignore weights.
+ *
+ * Until the window has been filled, statistics are of the values seen so far,
+ * and all of them are zero before the first step.
+ *
+ * @author Ziv
+ */
+public class Window extends NumBlock {
+
+    /**
+     * Which statistic {@link Window#getN()} returns.
+     */
+    public static abstract class Stat {
+        private Stat() {}
+        abstract double of(Window w);
+        /**
+         * The weighted sum. See {@link Window#getSum()}.
+         */
+        public static final Stat SUM = new Stat() {
+            double of(Window w) {
+                return w.getSum();
+            }
+        };
+        /**
+         * The weighted mean. See {@link Window#getMean()}.
+         */
+        public static final Stat MEAN = new Stat() {
+            double of(Window w) {
+                return w.getMean();
+            }
+        };
+        /**
+         * The weighted variance. See {@link Window#getVariance()}.
+         */
+        public static final Stat VARIANCE = new Stat() {
+            double of(Window w) {
+                return w.getVariance();
+            }
+        };
+        /**
+         * The smallest value. See {@link Window#getMin()}.
+         */
+        public static final Stat MIN = new Stat() {
+            double of(Window w) {
+                return w.getMin();
+            }
+        };
+        /**
+         * The largest value. See {@link Window#getMax()}.
+         */
+        public static final Stat MAX = new Stat() {
+            double of(Window w) {
+                return w.getMax();
+            }
+        };
+        /**
+         * The median. See {@link Window#getMedian()}.
+         */
+        public static final Stat MEDIAN = new Stat() {
+            double of(Window w) {
+                return w.getMedian();
+            }
+        };
+    }
+
+    private Num x;
+    private Num weight;
+    private Stat stat;
+    private double[] xs;
+    private double[] ws;
+    // Where the next value goes, which is also the oldest value once the
+    // window is full.
+    private int head = 0;
+    private int count = 0;
+    // Running sums are of values minus shift, which is moved to the mean
+    // once per lap, so the variance doesn't lose precision when the values
+    // are large.
+    private double shift = 0.0;
+    private double sumW = 0.0;
+    private double sumWX = 0.0;
+    private double sumWXX = 0.0;
+    // The same sums of only the values added during the current lap, which
+    // are only ever added to. At the end of a lap they are exactly the
+    // window's, so they replace the running sums and any rounding error the
+    // subtractions built up.
+    private double freshShift = 0.0;
+    private double freshW = 0.0;
+    private double freshWX = 0.0;
+    private double freshWXX = 0.0;
+    // Ring buffer positions of candidates for the maximum, in decreasing
+    // order of value, oldest first. The same for the minimum, increasing.
+    private int[] maxQ;
+    private int maxFront = 0;
+    private int maxSize = 0;
+    private int[] minQ;
+    private int minFront = 0;
+    private int minSize = 0;
+    private double[] sorted = null;
+
+    /**
+     * Creates a window of weighted values.
+     * @param length How many of the most recent values to use.
+     * @param x The values.
+     * @param weight The weight of each value, or {@code null} to weight them
+     * all equally.
+     * @param stat Which statistic {@link Window#getN()} returns.
+     * @param thread The {@link BlockThread} which determines how frequently
+     * samples are taken.
+     */
+    public Window(int length, Num x, Num weight, Stat stat,
+                  BlockThread thread) {
+        super(thread);
+        if(length < 1) {
+            throw new IllegalArgumentException("Window length must be at "
+                                               + "least 1");
+        }
+        this.x = x;
+        this.weight = weight;
+        this.stat = stat;
+        xs = new double[length];
+        ws = new double[length];
+        maxQ = new int[length];
+        minQ = new int[length];
+    }
+
+    /**
+     * Creates a window of equally weighted values.
+     * @param length How many of the most recent values to use.
+     * @param x The values.
+     * @param stat Which statistic {@link Window#getN()} returns.
+     * @param thread The {@link BlockThread} which determines how frequently
+     * samples are taken.
+     */
+    public Window(int length, Num x, Stat stat, BlockThread thread) {
+        this(length, x, null, stat, thread);
+    }
+
+    /**
+     * Creates a window of equally weighted values in
+     * {@link BlockThread#main()}.
+     * @param length How many of the most recent values to use.
+     * @param x The values.
+     * @param stat Which statistic {@link Window#getN()} returns.
+     */
+    public Window(int length, Num x, Stat stat) {
+        this(length, x, null, stat, BlockThread.main());
+    }
+
+    protected void handle() {
+        int n = xs.length;
+        double v = x.getN();
+        double w = (weight == null) ? 1.0 : weight.getN();
+        if(count == n) {
+            // The oldest value leaves the window.
+            double old = xs[head];
+            double d = old - shift;
+            sumW -= ws[head];
+            sumWX -= ws[head] * d;
+            sumWXX -= ws[head] * d * d;
+            if(maxQ[maxFront] == head) {
+                maxFront = (maxFront + 1) % n;
+                maxSize--;
+            }
+            if(minQ[minFront] == head) {
+                minFront = (minFront + 1) % n;
+                minSize--;
+            }
+            if(sorted != null) {
+                remove(old);
+            }
+        }
+        else {
+            if(count == 0) {
+                // Until the end of the first lap, the first value is close
+                // enough to the mean.
+                shift = v;
+                freshShift = v;
+            }
+            count++;
+        }
+        xs[head] = v;
+        ws[head] = w;
+        double d = v - shift;
+        sumW += w;
+        sumWX += w * d;
+        sumWXX += w * d * d;
+        // Older values that can never be the extreme again are dropped.
+        while(maxSize > 0 && xs[maxQ[(maxFront + maxSize - 1) % n]] <= v) {
+            maxSize--;
+        }
+        maxQ[(maxFront + maxSize) % n] = head;
+        maxSize++;
+        while(minSize > 0 && xs[minQ[(minFront + minSize - 1) % n]] >= v) {
+            minSize--;
+        }
+        minQ[(minFront + minSize) % n] = head;
+        minSize++;
+        if(sorted != null) {
+            insert(v);
+        }
+        d = v - freshShift;
+        freshW += w;
+        freshWX += w * d;
+        freshWXX += w * d * d;
+        head = (head + 1) % n;
+        if(head == 0) {
+            // Once per lap, so rounding errors in the running sums never
+            // build up, without ever going over the whole window at once.
+            shift = freshShift;
+            sumW = freshW;
+            sumWX = freshWX;
+            sumWXX = freshWXX;
+            freshShift = getMean();
+            freshW = 0.0;
+            freshWX = 0.0;
+            freshWXX = 0.0;
+        }
+    }
+
+    // Index of the first element of sorted[0..count-1] that is not less than
+    // v.
+    private int search(double v, int size) {
+        int lo = 0;
+        int hi = size;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(sorted[mid] < v) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void insert(double v) {
+        // The new value is already counted.
+        int size = count - 1;
+        int i = search(v, size);
+        System.arraycopy(sorted, i, sorted, i + 1, size - i);
+        sorted[i] = v;
+    }
+
+    private void remove(double v) {
+        int i = search(v, count);
+        if(i == count || sorted[i] != v) {
+            // NaN can't be found by searching.
+            i = 0;
+            while(Double.doubleToLongBits(sorted[i])
+                  != Double.doubleToLongBits(v)) {
+                i++;
+            }
+        }
+        System.arraycopy(sorted, i + 1, sorted, i, count - i - 1);
+    }
+
+    /**
+     * The statistic chosen when the window was created.
+     * @return The value of that statistic as of the latest time step.
+     */
+    public double getN() {
+        return stat.of(this);
+    }
+
+    /**
+     * How many values the window holds.
+     * @return The number of values, which is the length of the window once
+     * it has been filled.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * The sum of the values in the window, each times its weight.
+     * @return The weighted sum.
+     */
+    public double getSum() {
+        return sumWX + shift * sumW;
+    }
+
+    /**
+     * The sum of the weights of the values in the window.
+     * @return The total weight, which is the number of values if they aren't
+     * weighted.
+     */
+    public double getWeight() {
+        return sumW;
+    }
+
+    /**
+     * The weighted mean of the values in the window.
+     * @return The mean, or zero if the total weight is zero.
+     */
+    public double getMean() {
+        return (sumW == 0.0) ? 0.0 : shift + sumWX / sumW;
+    }
+
+    /**
+     * The weighted population variance of the values in the window.
+     * @return The variance, or zero if the total weight is zero.
+     */
+    public double getVariance() {
+        if(sumW == 0.0) {
+            return 0.0;
+        }
+        double mean = sumWX / sumW;
+        return Math.max(0.0, sumWXX / sumW - mean * mean);
+    }
+
+    /**
+     * The smallest value in the window.
+     * @return The minimum, or zero if the window is empty.
+     */
+    public double getMin() {
+        return (minSize == 0) ? 0.0 : xs[minQ[minFront]];
+    }
+
+    /**
+     * The largest value in the window.
+     * @return The maximum, or zero if the window is empty.
+     */
+    public double getMax() {
+        return (maxSize == 0) ? 0.0 : xs[maxQ[maxFront]];
+    }
+
+    /**
+     * The median of the values in the window. The first call sorts the window,
+     * and from then on it is kept sorted, which takes time proportional to the
+     * length of the window each step.
+     * @return The middle value, the mean of the two middle values if there
+     * are an even number, or zero if the window is empty.
+     */
+    public double getMedian() {
+        if(count == 0) {
+            return 0.0;
+        }
+        if(sorted == null) {
+            double[] s = new double[xs.length];
+            sorted = s;
+            for(int i=0; i<count; i++) {
+                int j = search(xs[i], i);
+                System.arraycopy(s, j, s, j + 1, i - j);
+                s[j] = xs[i];
+            }
+        }
+        int mid = count / 2;
+        if(count % 2 == 1) {
+            return sorted[mid];
+        }
+        return (sorted[mid-1] + sorted[mid]) / 2;
+    }
+
+    protected Num[] inputNums() {
+        if(weight == null) {
+            Num[] xs = {x};
+            return xs;
+        }
+        Num[] xs = {x, weight};
+        return xs;
+    }
+
+    public void reset() {
+        head = 0;
+        count = 0;
+        shift = 0.0;
+        sumW = 0.0;
+        sumWX = 0.0;
+        sumWXX = 0.0;
+        freshShift = 0.0;
+        freshW = 0.0;
+        freshWX = 0.0;
+        freshWXX = 0.0;
+        maxSize = 0;
+        minSize = 0;
+        sorted = null;
+    }
+}
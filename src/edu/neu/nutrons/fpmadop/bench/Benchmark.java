@@ -0,0 +1,130 @@
+package edu.neu.nutrons.fpmadop.bench;
+
+import edu.neu.nutrons.fpmadop.hal.Hal;
+
+/**
+ * A piece of code to be timed. Subclasses do some amount of work in
+ * {@link Benchmark#run(int)}, and {@link Benchmark#measure()} reports how long
+ * each unit of work takes after giving the VM a chance to warm up.
+ *
+ * The clock only counts whole microseconds (milliseconds on some VMs), so a
+ * single fast operation can't be timed on its own. Instead, every sample
+ * times a batch of operations big enough to take at least
+ * {@link Benchmark#BATCH_MICROS}, and the time per operation is the batch's
+ * time divided by its size. Time comes from the current {@link Hal}, whose
+ * clock must be running; see {@link Headless}.
+ *
+ * @author Ziv
+ */
+public abstract class Benchmark {
+
+    /**
+     * Written by benchmarks so the VM can't optimize their work away.
+     */
+    public static volatile double sink = 0.0;
+
+    /**
+     * How long to run before timing anything, in microseconds.
+     */
+    public static final long WARMUP_MICROS = 100000;
+    /**
+     * The shortest time a timed batch may take, in microseconds.
+     */
+    public static final long BATCH_MICROS = 50000;
+
+    private String name;
+    private int ops;
+    private int trials;
+
+    /**
+     * Creates a benchmark.
+     * @param name What is being measured.
+     * @param ops How many units of work to time at once to begin with. The
+     * batch is doubled until it takes at least {@link Benchmark#BATCH_MICROS}.
+     * @param trials How many batches to time.
+     */
+    protected Benchmark(String name, int ops, int trials) {
+        this.name = name;
+        this.ops = Math.max(1, ops);
+        this.trials = trials;
+    }
+
+    /**
+     * Does some units of work.
+     * @param ops How many units of work to do.
+     */
+    protected abstract void run(int ops);
+
+    /**
+     * The current time.
+     * @return The time in microseconds.
+     */
+    protected static long micros() {
+        return Hal.get().micros();
+    }
+
+    /**
+     * What is being measured.
+     * @return The benchmark's name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Warms up for at least {@link Benchmark#WARMUP_MICROS} while finding a
+     * big enough batch, then times several batches.
+     * @return The fastest, mean and slowest time per unit of work over the
+     * batches, in nanoseconds, the batch size, and the name of the benchmark.
+     */
+    public String measure() {
+        int n = ops;
+        long warmup = micros();
+        while(true) {
+            long start = micros();
+            run(n);
+            long end = micros();
+            if(end - start >= BATCH_MICROS) {
+                if(end - warmup >= WARMUP_MICROS) {
+                    break;
+                }
+            }
+            else if(n > Integer.MAX_VALUE / 2) {
+                throw new RuntimeException(name + " never took "
+                                           + BATCH_MICROS + " us; is the "
+                                           + "clock running?");
+            }
+            else {
+                n *= 2;
+            }
+        }
+        double best = Double.POSITIVE_INFINITY;
+        double worst = 0.0;
+        double total = 0.0;
+        for(int i=0; i<trials; i++) {
+            long start = micros();
+            run(n);
+            long took = micros() - start;
+            if(took < BATCH_MICROS && n <= Integer.MAX_VALUE / 2) {
+                // Warming up made it faster; start over with a bigger batch.
+                n *= 2;
+                best = Double.POSITIVE_INFINITY;
+                worst = 0.0;
+                total = 0.0;
+                i = -1;
+                continue;
+            }
+            double nanos = 1000.0 * took / n;
+            best = Math.min(best, nanos);
+            worst = Math.max(worst, nanos);
+            total += nanos;
+        }
+        return name + ": best " + round(best) + " ns, mean "
+               + round(total / trials) + " ns, worst " + round(worst)
+               + " ns (" + n + " per batch)";
+    }
+
+    private static String round(double x) {
+        return Double.toString(Math.floor(10.0*x + 0.5) / 10.0);
+    }
+}
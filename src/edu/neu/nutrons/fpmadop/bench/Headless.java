@@ -0,0 +1,35 @@
+package edu.neu.nutrons.fpmadop.bench;
+
+import edu.neu.nutrons.fpmadop.hal.Hal;
+import edu.neu.nutrons.fpmadop.hal.SimHal;
+
+/**
+ * Runs the {@link Suite} on a desktop VM, off the robot. The HAL is a
+ * {@link SimHal} whose clock follows {@link SimHal#wallMicros()}, so
+ * nothing reaches WPILib's native code; its classes (the real jar or stubs
+ * of it) only need to be on the classpath for the library to load. The clock
+ * counts milliseconds, which {@link Benchmark#BATCH_MICROS} is long enough to
+ * make small.
+ *
+ * @author Ziv
+ */
+public class Headless {
+
+    private Headless() {}
+
+    private static class WallClockHal extends SimHal {
+        public long micros() {
+            return wallMicros();
+        }
+    }
+
+    /**
+     * Runs every benchmark against a simulated robot, printing to standard
+     * output.
+     * @param args Ignored.
+     */
+    public static void main(String[] args) {
+        Hal.set(new WallClockHal());
+        Suite.runAll(System.out);
+    }
+}
@@ -0,0 +1,203 @@
+package edu.neu.nutrons.fpmadop.bench;
+
+import edu.neu.nutrons.fpmadop.BlockThread;
+import edu.neu.nutrons.fpmadop.Bool;
+import edu.neu.nutrons.fpmadop.Clock;
+import edu.neu.nutrons.fpmadop.BoolFunc.B;
+import edu.neu.nutrons.fpmadop.Num;
+import edu.neu.nutrons.fpmadop.NumFunc.N;
+import java.io.PrintStream;
+
+/**
+ * Benchmarks for every operator in {@link N} and {@link B}, for whole
+ * {@link BlockThread} time steps with many blocks, and for the common
+ * compositions built from blocks. Run {@link Suite#main(String[])} on the
+ * robot, or {@link Headless#main(String[])} on a desktop VM, to print the
+ * results, and compare them before and after changing the engine. Threads use
+ * a fixed-step {@link Clock}, so the blocks do the same work every run.
+ *
+ * Every figure is an average over a batch of operations or time steps (see
+ * {@link Benchmark}), so none of them is the worst case of a single step; a
+ * {@link edu.neu.nutrons.fpmadop.Profile} or a
+ * {@link edu.neu.nutrons.fpmadop.PeriodicScheduler}'s jitter counts show that
+ * on a running thread.
+ *
+ * @author Ziv
+ */
+public class Suite {
+
+    private Suite() {}
+
+    // Inputs that change every time they're read, so nothing can be cached.
+    private static class Ramp implements Num {
+        private double x = 0.0;
+        public double getN() {
+            x += 0.001;
+            if(x > 1.0) {
+                x = -1.0;
+            }
+            return x;
+        }
+    }
+
+    private static class Square implements Bool {
+        private int i = 0;
+        private int period;
+        private Square(int period) {
+            this.period = period;
+        }
+        public boolean getB() {
+            i = (i + 1) % period;
+            return 2*i < period;
+        }
+    }
+
+    private static Benchmark num(String name, final Num x) {
+        return new Benchmark(name, 1000000, 5) {
+            protected void run(int ops) {
+                double sum = 0.0;
+                for(int i=0; i<ops; i++) {
+                    sum += x.getN();
+                }
+                sink = sum;
+            }
+        };
+    }
+
+    private static Benchmark bool(String name, final Bool p) {
+        return new Benchmark(name, 1000000, 5) {
+            protected void run(int ops) {
+                int count = 0;
+                for(int i=0; i<ops; i++) {
+                    if(p.getB()) {
+                        count++;
+                    }
+                }
+                sink = count;
+            }
+        };
+    }
+
+    // Time steps of a thread, read through an output so the work counts.
+    private static Benchmark ticks(String name, final BlockThread thread,
+                                   final Num out, int ops) {
+        return new Benchmark(name, ops, 5) {
+            protected void run(int ops) {
+                double sum = 0.0;
+                for(int i=0; i<ops; i++) {
+                    thread.run();
+                    sum += out.getN();
+                }
+                sink = sum;
+            }
+        };
+    }
+
+    private static Benchmark ticks(String name, final BlockThread thread,
+                                   final Bool out, int ops) {
+        return ticks(name, thread, N.boolToNum(out), ops);
+    }
+
+    /**
+     * The cost of {@link Num#getN()} and {@link Bool#getB()} for each operator.
+     * @return The benchmarks.
+     */
+    public static Benchmark[] operators() {
+        Num x = new Ramp();
+        Num y = new Ramp();
+        Num z = new Ramp();
+        Bool p = new Square(3);
+        Bool q = new Square(7);
+        Num[] xs = {x, y, z};
+        Bool[] ps = {p, q, new Square(5)};
+        Benchmark[] bs = {
+            num("leaf", x),
+            num("id", N.id(1.0)),
+            num("sum", N.sum(xs)),
+            num("prod", N.prod(xs)),
+            num("diff", N.diff(x, y)),
+            num("quot", N.quot(x, y)),
+            num("max", N.max(xs)),
+            num("min", N.min(xs)),
+            num("boolToNum", N.boolToNum(p)),
+            num("limit", N.limit(-0.5, 0.5, x)),
+            num("deadband", N.deadband(0.0, 0.1, x)),
+            num("numMux", N.numMux(N.prod(2.0, x), xs)),
+            num("ifThenElse", N.ifThenElse(p, x, y)),
+            bool("not", B.not(p)),
+            bool("and", B.and(ps)),
+            bool("or", B.or(ps)),
+            bool("xor", B.xor(p, q)),
+            bool("inRange", B.inRange(-0.5, 0.5, x)),
+            bool("lessThan", B.lessThan(x, y)),
+            bool("equal", B.equal(x, y)),
+        };
+        return bs;
+    }
+
+    /**
+     * The cost of a whole time step with many blocks.
+     * @return The benchmarks.
+     */
+    public static Benchmark[] threads() {
+        int[] sizes = {10, 1000, 100000};
+        Benchmark[] bs = new Benchmark[sizes.length];
+        for(int i=0; i<sizes.length; i++) {
+            BlockThread thread = new BlockThread(Clock.fixedStep(0.01));
+            Num x = new Ramp();
+            Num out = null;
+            for(int j=0; j<sizes[i]; j++) {
+                out = N.accumulator(N.prod(0.5, x), thread);
+            }
+            // Keep the total work per batch roughly the same.
+            bs[i] = ticks("step, " + sizes[i] + " blocks", thread, out,
+                          Math.max(1, 1000000 / sizes[i]));
+        }
+        return bs;
+    }
+
+    /**
+     * The cost of a time step plus reading the output of each composition.
+     * @return The benchmarks.
+     */
+    public static Benchmark[] compositions() {
+        BlockThread[] threads = new BlockThread[5];
+        for(int i=0; i<threads.length; i++) {
+            threads[i] = new BlockThread(Clock.fixedStep(0.01));
+        }
+        Benchmark[] bs = {
+            ticks("movingAverage", threads[0],
+                  N.movingAverage(10, new Ramp(), threads[0]), 100000),
+            ticks("derivative", threads[1],
+                  N.derivative(new Ramp(), threads[1]), 100000),
+            ticks("integral", threads[2],
+                  N.integral(new Ramp(), threads[2]), 100000),
+            ticks("debounceTime", threads[3],
+                  B.debounceTime(0.1, new Square(9), threads[3]), 100000),
+            ticks("toggle", threads[4],
+                  B.toggle(new Square(9), threads[4]), 100000),
+        };
+        return bs;
+    }
+
+    /**
+     * Runs every benchmark.
+     * @param out Where to print the results.
+     */
+    public static void runAll(PrintStream out) {
+        Benchmark[][] groups = {operators(), threads(), compositions()};
+        for(int i=0; i<groups.length; i++) {
+            for(int j=0; j<groups[i].length; j++) {
+                out.println(groups[i][j].measure());
+            }
+        }
+    }
+
+    /**
+     * Runs every benchmark, printing to standard output.
+     * @param args Ignored.
+     */
+    public static void main(String[] args) {
+        runAll(System.out);
+    }
+}
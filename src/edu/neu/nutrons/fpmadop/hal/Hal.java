@@ -0,0 +1,143 @@
+package edu.neu.nutrons.fpmadop.hal;
+
+import edu.neu.nutrons.fpmadop.Bool;
+import edu.neu.nutrons.fpmadop.Num;
+import edu.wpi.first.wpilibj.RobotBase;
+
+/**
+ * Everything the library needs from the robot's hardware and field
+ * management: sensors, joysticks, a clock and the match state. The classes in
+ * {@link edu.neu.nutrons.fpmadop.wpiclone} and
+ * {@link edu.neu.nutrons.fpmadop.MatchState} go through the current HAL
+ * instead of WPILib, so a graph built from them runs on whichever backend is
+ * set. By default that is {@link WpiHal}, the real robot. Call
+ * {@link Hal#set(Hal)} with a {@link SimHal} before building anything to run
+ * off the robot.
+ *
+ * @author Ziv
+ */
+public abstract class Hal {
+
+    private static volatile Hal hal = null;
+
+    /**
+     * The HAL used by sensors created from now on.
+     * @return The current HAL.
+     */
+    public static Hal get() {
+        Hal h = hal;
+        if(h == null) {
+            synchronized(Hal.class) {
+                if(hal == null) {
+                    hal = new WpiHal();
+                }
+                h = hal;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Changes the HAL. Sensors that already exist keep using the one they
+     * were created with, so this should be called before anything else.
+     * @param h The new HAL.
+     */
+    public static void set(Hal h) {
+        synchronized(Hal.class) {
+            hal = h;
+        }
+    }
+
+    /**
+     * Sets the robot whose state is tracked, for a HAL that gets the match
+     * state from it. Others ignore it.
+     * @param robot An instance of the main robot object.
+     */
+    public void setRobot(RobotBase robot) {}
+
+    /**
+     * An analog input.
+     * @param channel The channel number.
+     * @return The channel's voltage.
+     */
+    public abstract Num analogChannel(int channel);
+
+    /**
+     * A digital input.
+     * @param channel The channel number.
+     * @return The input's value.
+     */
+    public abstract Bool digitalInput(int channel);
+
+    /**
+     * A quadrature encoder. It starts counting right away.
+     * @param aChannel The A digital input channel.
+     * @param bChannel The B digital input channel.
+     * @param reverseDirection If true, flip the sign of the count.
+     * @param decoding Counts per cycle: 1, 2 or 4.
+     * @return The encoder's count.
+     */
+    public abstract Num encoder(int aChannel, int bChannel,
+                                boolean reverseDirection, int decoding);
+
+    /**
+     * A gyro.
+     * @param channel The analog channel the gyro is connected to.
+     * @return The gyro's angle in degrees.
+     */
+    public abstract Num gyro(int channel);
+
+    /**
+     * One of a joystick's axes.
+     * @param port The driver station port the joystick is plugged into.
+     * @param axis The number of the axis.
+     * @return The axis's position.
+     */
+    public abstract Num joystickAxis(int port, int axis);
+
+    /**
+     * One of a joystick's buttons.
+     * @param port The driver station port the joystick is plugged into.
+     * @param button The number of the button.
+     * @return Whether the button is pressed.
+     */
+    public abstract Bool joystickButton(int port, int button);
+
+    /**
+     * The robot's clock.
+     * @return The time in microseconds since some fixed point.
+     */
+    public abstract long micros();
+
+    /**
+     * A clock that always follows real time, even when {@link Hal#micros()}
+     * doesn't. Used to wait for deadlines, such as by
+     * {@link edu.neu.nutrons.fpmadop.PeriodicScheduler}.
+     * @return The time in microseconds since some fixed point.
+     */
+    public abstract long wallMicros();
+
+    /**
+     * True when the robot is in disabled.
+     * @return Whether or not the robot is in disabled.
+     */
+    public abstract boolean isDisabled();
+
+    /**
+     * True when the robot is in autonomous.
+     * @return Whether or not the robot is in autonomous.
+     */
+    public abstract boolean isAuto();
+
+    /**
+     * True when the robot is in teleop.
+     * @return Whether or not the robot is in teleop.
+     */
+    public abstract boolean isTeleop();
+
+    /**
+     * The amount of time since the beginning of the match.
+     * @return The match time in seconds.
+     */
+    public abstract double matchTime();
+}
@@ -0,0 +1,164 @@
+package edu.neu.nutrons.fpmadop.hal;
+
+import edu.neu.nutrons.fpmadop.BlockThread;
+import edu.neu.nutrons.fpmadop.Bool;
+import edu.neu.nutrons.fpmadop.BoolFunc;
+import edu.neu.nutrons.fpmadop.Num;
+import edu.neu.nutrons.fpmadop.NumFunc;
+import edu.neu.nutrons.fpmadop.Recorder;
+import edu.wpi.first.wpilibj.RobotBase;
+import java.io.OutputStream;
+
+/**
+ * Passes everything through to another HAL and records every sensor created
+ * through it, plus the match state, with a {@link Recorder}. Each sensor is
+ * read at most once per time step, so the recording holds exactly the values
+ * the blocks saw. {@link ReplayHal} plays the recording back.
+ *
+ * Create the sensors, then start the recorder with
+ * {@code recorder().start()}.
+ *
+ * @author Ziv
+ */
+public class RecordingHal extends Hal {
+
+    static final String ANALOG = "analog";
+    static final String DIGITAL = "digital";
+    static final String ENCODER = "encoder";
+    static final String GYRO = "gyro";
+    static final String AXIS = "axis";
+    static final String BUTTON = "button";
+    static final String MATCH_TIME = "matchTime";
+    static final String AUTO = "auto";
+    static final String TELEOP = "teleop";
+
+    private static class MatchTime implements Num {
+        private Hal hal;
+        private MatchTime(Hal hal) {
+            this.hal = hal;
+        }
+        public double getN() {
+            return hal.matchTime();
+        }
+    }
+
+    private static class Auto implements Bool {
+        private Hal hal;
+        private Auto(Hal hal) {
+            this.hal = hal;
+        }
+        public boolean getB() {
+            return hal.isAuto();
+        }
+    }
+
+    private static class Teleop implements Bool {
+        private Hal hal;
+        private Teleop(Hal hal) {
+            this.hal = hal;
+        }
+        public boolean getB() {
+            return hal.isTeleop();
+        }
+    }
+
+    private Hal hal;
+    private BlockThread thread;
+    private Recorder recorder;
+
+    /**
+     * Creates a recording HAL.
+     * @param hal The HAL that does the real work.
+     * @param thread The thread the sensors are read by.
+     * @param out Where the recording is written.
+     * @param capacity How many records can wait to be written before new ones
+     * are dropped.
+     */
+    public RecordingHal(Hal hal, BlockThread thread, OutputStream out,
+                        int capacity) {
+        this.hal = hal;
+        this.thread = thread;
+        recorder = new Recorder(thread, out, capacity);
+        recorder.record(MATCH_TIME, NumFunc.memo(new MatchTime(hal), thread));
+        recorder.record(AUTO, BoolFunc.memo(new Auto(hal), thread));
+        recorder.record(TELEOP, BoolFunc.memo(new Teleop(hal), thread));
+    }
+
+    /**
+     * The recorder. Start it once every sensor has been created.
+     * @return The recorder.
+     */
+    public Recorder recorder() {
+        return recorder;
+    }
+
+    public void setRobot(RobotBase robot) {
+        hal.setRobot(robot);
+    }
+
+    private Num record(String name, Num x) {
+        Num m = NumFunc.memo(x, thread);
+        recorder.record(name, m);
+        return m;
+    }
+
+    private Bool record(String name, Bool p) {
+        Bool m = BoolFunc.memo(p, thread);
+        recorder.record(name, m);
+        return m;
+    }
+
+    public Num analogChannel(int channel) {
+        return record(ANALOG + "/" + channel, hal.analogChannel(channel));
+    }
+
+    public Bool digitalInput(int channel) {
+        return record(DIGITAL + "/" + channel, hal.digitalInput(channel));
+    }
+
+    public Num encoder(int aChannel, int bChannel, boolean reverseDirection,
+                       int decoding) {
+        // Record the count before reversal, like SimHal stores it.
+        Num x = record(ENCODER + "/" + aChannel,
+                       hal.encoder(aChannel, bChannel, false, decoding));
+        return reverseDirection ? NumFunc.prod(-1.0, x) : x;
+    }
+
+    public Num gyro(int channel) {
+        return record(GYRO + "/" + channel, hal.gyro(channel));
+    }
+
+    public Num joystickAxis(int port, int axis) {
+        return record(AXIS + "/" + port + "/" + axis,
+                      hal.joystickAxis(port, axis));
+    }
+
+    public Bool joystickButton(int port, int button) {
+        return record(BUTTON + "/" + port + "/" + button,
+                      hal.joystickButton(port, button));
+    }
+
+    public long micros() {
+        return hal.micros();
+    }
+
+    public long wallMicros() {
+        return hal.wallMicros();
+    }
+
+    public boolean isDisabled() {
+        return hal.isDisabled();
+    }
+
+    public boolean isAuto() {
+        return hal.isAuto();
+    }
+
+    public boolean isTeleop() {
+        return hal.isTeleop();
+    }
+
+    public double matchTime() {
+        return hal.matchTime();
+    }
+}
@@ -0,0 +1,265 @@
+package edu.neu.nutrons.fpmadop.hal;
+
+import edu.neu.nutrons.fpmadop.Clock;
+import edu.neu.nutrons.fpmadop.LogReader;
+import edu.neu.nutrons.fpmadop.MatchState;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Plays back a recording made by a {@link RecordingHal}. Sensors read the
+ * recorded values, and {@link ReplayHal#clock()} steps through the recorded
+ * times, so a {@link edu.neu.nutrons.fpmadop.BlockThread} using it sees
+ * exactly what the recorded thread saw, one record per time step, as fast as
+ * it can be run:
+ * <pre>
+ * ReplayHal replay = new ReplayHal(in);
+ * Hal.set(replay);
+ * BlockThread thread = new BlockThread(replay.clock());
+ * // Build the graph on thread...
+ * while(replay.hasNext()) {
+ *     thread.run();
+ * }
+ * </pre>
+ * Channels that aren't sensors, such as values recorded from the graph, are
+ * ignored.
+ *
+ * If the recorder dropped records, the step indices in the recording skip,
+ * and the replaying thread would see two steps' sensor changes in one. That
+ * makes the replay fail unless {@link ReplayHal#setAllowGaps(boolean)} says
+ * to play on, in which case the missing steps are counted.
+ *
+ * @author Ziv
+ */
+public class ReplayHal extends SimHal {
+
+    private static final int NONE = 0;
+    private static final int ANALOG = 1;
+    private static final int DIGITAL = 2;
+    private static final int ENCODER = 3;
+    private static final int GYRO = 4;
+    private static final int AXIS = 5;
+    private static final int BUTTON = 6;
+    private static final int MATCH_TIME = 7;
+    private static final int AUTO = 8;
+    private static final int TELEOP = 9;
+
+    // Moves the recording forward, so it's ticked before any block runs.
+    private class ReplayClock extends Clock {
+        private double now = 0.0;
+        protected void tick() {
+            if(more) {
+                checkStep(reader.tick());
+                now = reader.time();
+                apply();
+                try {
+                    more = reader.next();
+                }
+                catch(IOException e) {
+                    more = false;
+                    throw new RuntimeException("Replay failed: "
+                                               + e.getMessage());
+                }
+            }
+        }
+        public double getN() {
+            return now;
+        }
+    }
+
+    private LogReader reader;
+    private boolean more;
+    private Clock clock = new ReplayClock();
+    // What each column sets: its kind and up to two channel numbers.
+    private int[] numKinds;
+    private int[] numAs;
+    private int[] numBs;
+    private int[] boolKinds;
+    private int[] boolAs;
+    private int[] boolBs;
+    private int autoColumn = -1;
+    private int teleopColumn = -1;
+    private boolean allowGaps = false;
+    private boolean first = true;
+    private int lastStep;
+    private long missing = 0;
+
+    /**
+     * Starts playing back a recording.
+     * @param in The recording.
+     * @throws IOException If the recording can't be read.
+     */
+    public ReplayHal(InputStream in) throws IOException {
+        reader = new LogReader(in);
+        String[] names = reader.numNames();
+        numKinds = new int[names.length];
+        numAs = new int[names.length];
+        numBs = new int[names.length];
+        for(int c=0; c<names.length; c++) {
+            parse(names[c], c, numKinds, numAs, numBs);
+        }
+        names = reader.boolNames();
+        boolKinds = new int[names.length];
+        boolAs = new int[names.length];
+        boolBs = new int[names.length];
+        for(int c=0; c<names.length; c++) {
+            parse(names[c], c, boolKinds, boolAs, boolBs);
+            if(boolKinds[c] == AUTO) {
+                autoColumn = c;
+            }
+            else if(boolKinds[c] == TELEOP) {
+                teleopColumn = c;
+            }
+        }
+        more = reader.next();
+    }
+
+    // Names look like "kind", "kind/a" or "kind/a/b".
+    private static void parse(String name, int c, int[] kinds, int[] as,
+                              int[] bs) {
+        int slash = name.indexOf('/');
+        String kind = (slash < 0) ? name : name.substring(0, slash);
+        try {
+            if(slash >= 0) {
+                int second = name.indexOf('/', slash + 1);
+                if(second < 0) {
+                    as[c] = Integer.parseInt(name.substring(slash + 1));
+                }
+                else {
+                    as[c] = Integer.parseInt(name.substring(slash + 1,
+                                                            second));
+                    bs[c] = Integer.parseInt(name.substring(second + 1));
+                }
+            }
+        }
+        catch(NumberFormatException e) {
+            kinds[c] = NONE;
+            return;
+        }
+        if(kind.equals(RecordingHal.ANALOG)) {
+            kinds[c] = ANALOG;
+        }
+        else if(kind.equals(RecordingHal.DIGITAL)) {
+            kinds[c] = DIGITAL;
+        }
+        else if(kind.equals(RecordingHal.ENCODER)) {
+            kinds[c] = ENCODER;
+        }
+        else if(kind.equals(RecordingHal.GYRO)) {
+            kinds[c] = GYRO;
+        }
+        else if(kind.equals(RecordingHal.AXIS)) {
+            kinds[c] = AXIS;
+        }
+        else if(kind.equals(RecordingHal.BUTTON)) {
+            kinds[c] = BUTTON;
+        }
+        else if(kind.equals(RecordingHal.MATCH_TIME)) {
+            kinds[c] = MATCH_TIME;
+        }
+        else if(kind.equals(RecordingHal.AUTO)) {
+            kinds[c] = AUTO;
+        }
+        else if(kind.equals(RecordingHal.TELEOP)) {
+            kinds[c] = TELEOP;
+        }
+        else {
+            kinds[c] = NONE;
+        }
+    }
+
+    /**
+     * The clock to run the replaying thread with. Each tick moves to the next
+     * record and sets every sensor from it.
+     * @return The clock.
+     */
+    public Clock clock() {
+        return clock;
+    }
+
+    /**
+     * Sets whether to play on past steps missing from the recording.
+     * @param allowGaps If false (the default), the clock's tick throws a
+     * {@link RuntimeException} when it reaches a gap.
+     */
+    public void setAllowGaps(boolean allowGaps) {
+        this.allowGaps = allowGaps;
+    }
+
+    /**
+     * How many steps were missing from the recording so far.
+     * @return The number of step indices skipped over.
+     */
+    public long getMissing() {
+        return missing;
+    }
+
+    private void checkStep(int step) {
+        if(!first && step != lastStep + 1) {
+            if(!allowGaps) {
+                more = false;
+                throw new RuntimeException("Replay has a gap: step " + step
+                                           + " follows step " + lastStep);
+            }
+            missing += Math.max(0, step - lastStep - 1);
+        }
+        first = false;
+        lastStep = step;
+    }
+
+    /**
+     * Whether there are records left to play back.
+     * @return True if the next time step will read a new record.
+     */
+    public boolean hasNext() {
+        return more;
+    }
+
+    private void apply() {
+        setMicros((long)(1e6*reader.time() + 0.5));
+        for(int c=0; c<numKinds.length; c++) {
+            double x = reader.num(c);
+            switch(numKinds[c]) {
+                case ANALOG:
+                    setAnalog(numAs[c], x);
+                    break;
+                case ENCODER:
+                    setEncoder(numAs[c], x);
+                    break;
+                case GYRO:
+                    setGyro(numAs[c], x);
+                    break;
+                case AXIS:
+                    setAxis(numAs[c], numBs[c], x);
+                    break;
+                case MATCH_TIME:
+                    setMatchTime(x);
+                    break;
+                default:
+                    break;
+            }
+        }
+        for(int c=0; c<boolKinds.length; c++) {
+            boolean p = reader.bool(c);
+            switch(boolKinds[c]) {
+                case DIGITAL:
+                    setDigital(boolAs[c], p);
+                    break;
+                case BUTTON:
+                    setButton(boolAs[c], boolBs[c], p);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if(autoColumn >= 0 && reader.bool(autoColumn)) {
+            setMode(MatchState.Mode.AUTO);
+        }
+        else if(teleopColumn >= 0 && reader.bool(teleopColumn)) {
+            setMode(MatchState.Mode.TELEOP);
+        }
+        else {
+            setMode(MatchState.Mode.DISABLED);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package edu.neu.nutrons.fpmadop.hal;
+
+import edu.neu.nutrons.fpmadop.Bool;
+import edu.neu.nutrons.fpmadop.MatchState;
+import edu.neu.nutrons.fpmadop.Num;
+
+/**
+ * A robot that exists only in memory. Every sensor reads a value set by the
+ * program driving the simulation, and time only passes when
+ * {@link SimHal#advance(double)} or {@link SimHal#setMicros(long)} is called,
+ * so a simulation runs as fast as the graph can be evaluated. Only
+ * {@link SimHal#wallMicros()} follows real time, in whole milliseconds.
+ *
+ * Values are kept in plain arrays indexed by channel, and the sensors handed
+ * out read them directly. A simulation is meant to be driven from the same
+ * thread that runs its blocks.
+ *
+ * @author Ziv
+ */
+public class SimHal extends Hal {
+
+    /**
+     * The highest analog channel number.
+     */
+    public static final int ANALOG_CHANNELS = 8;
+    /**
+     * The highest digital channel number.
+     */
+    public static final int DIGITAL_CHANNELS = 14;
+    /**
+     * The highest joystick port number.
+     */
+    public static final int PORTS = 4;
+    /**
+     * The highest joystick axis number.
+     */
+    public static final int AXES = 6;
+    /**
+     * The highest joystick button number.
+     */
+    public static final int BUTTONS = 12;
+
+    private static class NumChannel implements Num {
+        private double[] xs;
+        private int i;
+        private NumChannel(double[] xs, int i) {
+            this.xs = xs;
+            this.i = i;
+        }
+        public double getN() {
+            return xs[i];
+        }
+    }
+
+    private static class BoolChannel implements Bool {
+        private boolean[] ps;
+        private int i;
+        private BoolChannel(boolean[] ps, int i) {
+            this.ps = ps;
+            this.i = i;
+        }
+        public boolean getB() {
+            return ps[i];
+        }
+    }
+
+    private static class Reversed implements Num {
+        private double[] xs;
+        private int i;
+        private Reversed(double[] xs, int i) {
+            this.xs = xs;
+            this.i = i;
+        }
+        public double getN() {
+            return -xs[i];
+        }
+    }
+
+    private double[] analogs = new double[ANALOG_CHANNELS + 1];
+    private boolean[] digitals = new boolean[DIGITAL_CHANNELS + 1];
+    // Encoders are identified by their A channel, gyros by their channel.
+    private double[] encoders = new double[DIGITAL_CHANNELS + 1];
+    private double[] gyros = new double[ANALOG_CHANNELS + 1];
+    private double[] axes = new double[(PORTS + 1) * (AXES + 1)];
+    private boolean[] buttons = new boolean[(PORTS + 1) * (BUTTONS + 1)];
+    private long micros = 0;
+    private MatchState.Mode mode = MatchState.Mode.DISABLED;
+    private double matchTime = 0.0;
+
+    /**
+     * Creates a simulated robot. Every input reads zero or false, the clock
+     * reads zero and the robot is disabled.
+     */
+    public SimHal() {}
+
+    private static int check(int i, int max, String what) {
+        if(i < 1 || i > max) {
+            throw new IllegalArgumentException("No " + what + " " + i);
+        }
+        return i;
+    }
+
+    private static int axis(int port, int axis) {
+        return check(port, PORTS, "joystick port") * (AXES + 1)
+               + check(axis, AXES, "axis");
+    }
+
+    private static int button(int port, int button) {
+        return check(port, PORTS, "joystick port") * (BUTTONS + 1)
+               + check(button, BUTTONS, "button");
+    }
+
+    public Num analogChannel(int channel) {
+        return new NumChannel(analogs,
+                              check(channel, ANALOG_CHANNELS, "analog channel"));
+    }
+
+    public Bool digitalInput(int channel) {
+        return new BoolChannel(digitals,
+                               check(channel, DIGITAL_CHANNELS,
+                                     "digital channel"));
+    }
+
+    public Num encoder(int aChannel, int bChannel, boolean reverseDirection,
+                       int decoding) {
+        check(aChannel, DIGITAL_CHANNELS, "digital channel");
+        check(bChannel, DIGITAL_CHANNELS, "digital channel");
+        if(reverseDirection) {
+            return new Reversed(encoders, aChannel);
+        }
+        return new NumChannel(encoders, aChannel);
+    }
+
+    public Num gyro(int channel) {
+        return new NumChannel(gyros,
+                              check(channel, ANALOG_CHANNELS, "analog channel"));
+    }
+
+    public Num joystickAxis(int port, int axis) {
+        return new NumChannel(axes, axis(port, axis));
+    }
+
+    public Bool joystickButton(int port, int button) {
+        return new BoolChannel(buttons, button(port, button));
+    }
+
+    public long micros() {
+        return micros;
+    }
+
+    public long wallMicros() {
+        return 1000 * System.currentTimeMillis();
+    }
+
+    public boolean isDisabled() {
+        return mode == MatchState.Mode.DISABLED;
+    }
+
+    public boolean isAuto() {
+        return mode == MatchState.Mode.AUTO;
+    }
+
+    public boolean isTeleop() {
+        return mode == MatchState.Mode.TELEOP;
+    }
+
+    public double matchTime() {
+        return matchTime;
+    }
+
+    /**
+     * Sets an analog input's voltage.
+     * @param channel The channel number.
+     * @param voltage The new voltage.
+     */
+    public void setAnalog(int channel, double voltage) {
+        analogs[check(channel, ANALOG_CHANNELS, "analog channel")] = voltage;
+    }
+
+    /**
+     * Sets a digital input's value.
+     * @param channel The channel number.
+     * @param value The new value.
+     */
+    public void setDigital(int channel, boolean value) {
+        digitals[check(channel, DIGITAL_CHANNELS, "digital channel")] = value;
+    }
+
+    /**
+     * Sets an encoder's count, before any reversal.
+     * @param aChannel The encoder's A channel.
+     * @param count The new count.
+     */
+    public void setEncoder(int aChannel, double count) {
+        encoders[check(aChannel, DIGITAL_CHANNELS, "digital channel")] = count;
+    }
+
+    /**
+     * Sets a gyro's angle.
+     * @param channel The analog channel the gyro is connected to.
+     * @param angle The new angle in degrees.
+     */
+    public void setGyro(int channel, double angle) {
+        gyros[check(channel, ANALOG_CHANNELS, "analog channel")] = angle;
+    }
+
+    /**
+     * Sets a joystick axis's position.
+     * @param port The driver station port the joystick is plugged into.
+     * @param axis The number of the axis.
+     * @param position The new position.
+     */
+    public void setAxis(int port, int axis, double position) {
+        axes[axis(port, axis)] = position;
+    }
+
+    /**
+     * Presses or releases a joystick button.
+     * @param port The driver station port the joystick is plugged into.
+     * @param button The number of the button.
+     * @param pressed Whether the button is now pressed.
+     */
+    public void setButton(int port, int button, boolean pressed) {
+        buttons[button(port, button)] = pressed;
+    }
+
+    /**
+     * Sets the mode the robot is in.
+     * @param mode Disabled, autonomous or teleoperated.
+     */
+    public void setMode(MatchState.Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Sets the match time.
+     * @param seconds The time since the beginning of the match.
+     */
+    public void setMatchTime(double seconds) {
+        matchTime = seconds;
+    }
+
+    /**
+     * Sets the clock.
+     * @param micros The time in microseconds.
+     */
+    public void setMicros(long micros) {
+        this.micros = micros;
+    }
+
+    /**
+     * Moves the clock and the match time forward.
+     * @param seconds How much time passes.
+     */
+    public void advance(double seconds) {
+        micros += (long)(1e6*seconds + 0.5);
+        matchTime += seconds;
+    }
+}
@@ -0,0 +1,178 @@
+package edu.neu.nutrons.fpmadop.hal;
+
+import edu.neu.nutrons.fpmadop.Bool;
+import edu.neu.nutrons.fpmadop.Num;
+import edu.wpi.first.wpilibj.AnalogChannel;
+import edu.wpi.first.wpilibj.DigitalInput;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Encoder;
+import edu.wpi.first.wpilibj.Encoder.EncodingType;
+import edu.wpi.first.wpilibj.Gyro;
+import edu.wpi.first.wpilibj.Joystick;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.Utility;
+
+/**
+ * The real robot, through WPILib. Only works on the cRIO.
+ *
+ * @author Ziv
+ */
+public class WpiHal extends Hal {
+
+    private static final int PORTS = 4;
+
+    private static class Analog implements Num {
+        private AnalogChannel x;
+        private Analog(int channel) {
+            x = new AnalogChannel(channel);
+        }
+        public double getN() {
+            return x.getVoltage();
+        }
+    }
+
+    private static class Digital implements Bool {
+        private DigitalInput p;
+        private Digital(int channel) {
+            p = new DigitalInput(channel);
+        }
+        public boolean getB() {
+            return p.get();
+        }
+    }
+
+    private static class Quadrature implements Num {
+        private Encoder x;
+        private Quadrature(int aChannel, int bChannel, boolean reverseDirection,
+                           EncodingType encodingType) {
+            x = new Encoder(aChannel, bChannel, reverseDirection, encodingType);
+            x.start();
+        }
+        public double getN() {
+            return x.get();
+        }
+    }
+
+    private static class Angle implements Num {
+        private Gyro x;
+        private Angle(int channel) {
+            x = new Gyro(channel);
+        }
+        public double getN() {
+            return x.getAngle();
+        }
+    }
+
+    private static class Axis implements Num {
+        private Joystick js;
+        private int axis;
+        private Axis(Joystick js, int axis) {
+            this.js = js;
+            this.axis = axis;
+        }
+        public double getN() {
+            return js.getRawAxis(axis);
+        }
+    }
+
+    private static class Button implements Bool {
+        private Joystick js;
+        private int button;
+        private Button(Joystick js, int button) {
+            this.js = js;
+            this.button = button;
+        }
+        public boolean getB() {
+            return js.getRawButton(button);
+        }
+    }
+
+    private Joystick[] joysticks = new Joystick[PORTS + 1];
+    private volatile RobotBase bot = null;
+
+    /**
+     * Creates the robot's HAL. Until {@link WpiHal#setRobot(RobotBase)} is
+     * called, the robot is always considered disabled.
+     */
+    public WpiHal() {}
+
+    /**
+     * Sets the robot that has it's state tracked.
+     * @param robot An instance of the main robot object.
+     */
+    public void setRobot(RobotBase robot) {
+        bot = robot;
+    }
+
+    private synchronized Joystick joystick(int port) {
+        if(port < 1 || port > PORTS) {
+            throw new IllegalArgumentException("No joystick port " + port);
+        }
+        if(joysticks[port] == null) {
+            joysticks[port] = new Joystick(port);
+        }
+        return joysticks[port];
+    }
+
+    public Num analogChannel(int channel) {
+        return new Analog(channel);
+    }
+
+    public Bool digitalInput(int channel) {
+        return new Digital(channel);
+    }
+
+    public Num encoder(int aChannel, int bChannel, boolean reverseDirection,
+                       int decoding) {
+        EncodingType type;
+        if(decoding == 1) {
+            type = EncodingType.k1X;
+        }
+        else if(decoding == 2) {
+            type = EncodingType.k2X;
+        }
+        else if(decoding == 4) {
+            type = EncodingType.k4X;
+        }
+        else {
+            throw new IllegalArgumentException("Bad decoding " + decoding);
+        }
+        return new Quadrature(aChannel, bChannel, reverseDirection, type);
+    }
+
+    public Num gyro(int channel) {
+        return new Angle(channel);
+    }
+
+    public Num joystickAxis(int port, int axis) {
+        return new Axis(joystick(port), axis);
+    }
+
+    public Bool joystickButton(int port, int button) {
+        return new Button(joystick(port), button);
+    }
+
+    public long micros() {
+        return Utility.getFPGATime();
+    }
+
+    public long wallMicros() {
+        return Utility.getFPGATime();
+    }
+
+    public boolean isDisabled() {
+        return bot == null || bot.isDisabled();
+    }
+
+    public boolean isAuto() {
+        return bot != null && bot.isAutonomous();
+    }
+
+    public boolean isTeleop() {
+        return bot != null && bot.isOperatorControl();
+    }
+
+    public double matchTime() {
+        return DriverStation.getInstance().getMatchTime();
+    }
+}
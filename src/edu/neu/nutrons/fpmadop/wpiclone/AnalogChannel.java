@@ -1,26 +1,53 @@
 package edu.neu.nutrons.fpmadop.wpiclone;
 
+import edu.neu.nutrons.fpmadop.BlockThread;
 import edu.neu.nutrons.fpmadop.Num;
+import edu.neu.nutrons.fpmadop.hal.Hal;
+import edu.wpi.first.wpilibj.PIDSource;
 
 /**
- * WPILib's analog channel with the {@link Num} interface. {@link Num#getN()} is
- * {@link edu.wpi.first.wpilibj.AnalogChannel#getVoltage()}.
+ * An analog channel with the {@link Num} and {@link PIDSource} interfaces.
+ * {@link Num#getN()} and {@link PIDSource#pidGet()} are
+ * {@link AnalogChannel#getVoltage()}. Reads through the current {@link Hal},
+ * either every time or once per time step of a {@link BlockThread}.
  *
  * @author Ziv
  */
-public class AnalogChannel extends edu.wpi.first.wpilibj.AnalogChannel
-                           implements Num {
+public class AnalogChannel implements Num, PIDSource {
+
+    private Num x;
 
     /**
-     * Creates an analog channel identical to
-     * {@link edu.wpi.first.wpilibj.AnalogChannel}.
+     * Creates an analog channel.
      * @param channel The channel number.
      */
     public AnalogChannel(int channel) {
-        super(channel);
+        x = Hal.get().analogChannel(channel);
+    }
+
+    /**
+     * Creates an analog channel that is read once per time step.
+     * @param channel The channel number.
+     * @param thread The thread whose {@link BlockThread#snapshot()} samples
+     * the channel.
+     */
+    public AnalogChannel(int channel, BlockThread thread) {
+        x = thread.snapshot().add(Hal.get().analogChannel(channel));
+    }
+
+    /**
+     * The voltage on the channel.
+     * @return The voltage.
+     */
+    public double getVoltage() {
+        return x.getN();
+    }
+
+    public double pidGet() {
+        return x.getN();
     }
 
     public double getN() {
-        return getVoltage();
+        return x.getN();
     }
 }
@@ -1,26 +1,47 @@
 package edu.neu.nutrons.fpmadop.wpiclone;
 
+import edu.neu.nutrons.fpmadop.BlockThread;
 import edu.neu.nutrons.fpmadop.Bool;
+import edu.neu.nutrons.fpmadop.hal.Hal;
 
 /**
- * WPILib's digital input with the {@link Bool} interface. {@link Bool#getB()}
- * is {@link edu.wpi.first.wpilibj.DigitalInput#get()}.
+ * A digital input with the {@link Bool} interface. {@link Bool#getB()} is
+ * {@link DigitalInput#get()}. Reads through the current {@link Hal}, either
+ * every time or once per time step of a {@link BlockThread}.
  *
  * @author Ziv
  */
-public class DigitalInput extends edu.wpi.first.wpilibj.DigitalInput
-                          implements Bool {
+public class DigitalInput implements Bool {
+
+    private Bool p;
 
     /**
-     * Creates a digital input identical to
-     * {@link edu.wpi.first.wpilibj.DigitalInput}.
+     * Creates a digital input.
      * @param channel The channel number.
      */
     public DigitalInput(int channel) {
-        super(channel);
+        p = Hal.get().digitalInput(channel);
+    }
+
+    /**
+     * Creates a digital input that is read once per time step.
+     * @param channel The channel number.
+     * @param thread The thread whose {@link BlockThread#snapshot()} samples
+     * the input.
+     */
+    public DigitalInput(int channel, BlockThread thread) {
+        p = thread.snapshot().add(Hal.get().digitalInput(channel));
+    }
+
+    /**
+     * The value of the input.
+     * @return The value.
+     */
+    public boolean get() {
+        return p.getB();
     }
 
     public boolean getB() {
-        return get();
+        return p.getB();
     }
 }
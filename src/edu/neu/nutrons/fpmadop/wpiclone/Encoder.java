@@ -1,20 +1,34 @@
 package edu.neu.nutrons.fpmadop.wpiclone;
 
+import edu.neu.nutrons.fpmadop.BlockThread;
 import edu.neu.nutrons.fpmadop.Num;
+import edu.neu.nutrons.fpmadop.hal.Hal;
+import edu.wpi.first.wpilibj.Encoder.EncodingType;
+import edu.wpi.first.wpilibj.PIDSource;
 
 /**
- * WPILib's encoder with the {@link Num} interface. The only change is that this
- * class doesn't require an initial
- * {@link edu.wpi.first.wpilibj.Encoder#start()}.  {@link Num#getN()} is
- * {@link edu.wpi.first.wpilibj.Encoder#get()}.
+ * An encoder with the {@link Num} interface. Unlike WPILib's encoder, it
+ * doesn't require an initial start. {@link Num#getN()} is
+ * {@link Encoder#get()}, and {@link PIDSource#pidGet()} is
+ * {@link Encoder#getDistance()}, as for WPILib's. Reads through the current
+ * {@link Hal}, either every time or once per time step of a
+ * {@link BlockThread}.
  *
  * @author Ziv
  */
-public class Encoder extends edu.wpi.first.wpilibj.Encoder implements Num {
+public class Encoder implements Num, PIDSource {
+
+    private Num x;
+    private Hal hal;
+    private double offset = 0.0;
+    private double distancePerPulse = 1.0;
+    // The count and time when the rate was last worked out.
+    private double lastCount;
+    private long lastMicros;
+    private double rate = 0.0;
 
     /**
-     * Creates and starts an encoder identical to
-     * {@link edu.wpi.first.wpilibj.Encoder}.
+     * Creates and starts an encoder.
      * @param aChannel The A digital input channel.
      * @param bChannel The B digital input channel.
      * @param reverseDirection If true, flip the sign of the encoder output.
@@ -22,8 +36,93 @@ public class Encoder extends edu.wpi.first.wpilibj.Encoder implements Num {
      */
     public Encoder(int aChannel, int bChannel, boolean reverseDirection,
                    EncodingType encodingType) {
-        super(aChannel, bChannel, reverseDirection, encodingType);
-        start();
+        hal = Hal.get();
+        x = hal.encoder(aChannel, bChannel, reverseDirection,
+                        decoding(encodingType));
+        lastCount = x.getN();
+        lastMicros = hal.micros();
+    }
+
+    /**
+     * Creates and starts an encoder that is read once per time step.
+     * @param aChannel The A digital input channel.
+     * @param bChannel The B digital input channel.
+     * @param reverseDirection If true, flip the sign of the encoder output.
+     * @param encodingType Choose between 1X, 2X or 4X decoding.
+     * @param thread The thread whose {@link BlockThread#snapshot()} samples
+     * the encoder.
+     */
+    public Encoder(int aChannel, int bChannel, boolean reverseDirection,
+                   EncodingType encodingType, BlockThread thread) {
+        hal = Hal.get();
+        x = thread.snapshot().add(hal.encoder(aChannel, bChannel,
+                                              reverseDirection,
+                                              decoding(encodingType)));
+        lastCount = x.getN();
+        lastMicros = hal.micros();
+    }
+
+    private static int decoding(EncodingType encodingType) {
+        if(encodingType == EncodingType.k1X) {
+            return 1;
+        }
+        else if(encodingType == EncodingType.k2X) {
+            return 2;
+        }
+        return 4;
+    }
+
+    /**
+     * The count since the encoder was created or last reset.
+     * @return The count.
+     */
+    public int get() {
+        return (int)(x.getN() - offset);
+    }
+
+    /**
+     * Sets the count to zero.
+     */
+    public void reset() {
+        offset = x.getN();
+    }
+
+    /**
+     * Sets how far the mechanism moves for each count, which scales
+     * {@link Encoder#getDistance()} and {@link Encoder#getRate()}.
+     * @param distancePerPulse The distance per count, in whatever units.
+     */
+    public void setDistancePerPulse(double distancePerPulse) {
+        this.distancePerPulse = distancePerPulse;
+    }
+
+    /**
+     * The distance moved since the encoder was created or last reset.
+     * @return The count times the distance per pulse.
+     */
+    public double getDistance() {
+        return get()*distancePerPulse;
+    }
+
+    /**
+     * How fast the encoder is turning, worked out from the change in count
+     * since the last call that was at a different time on the HAL's clock.
+     * Calling it once per time step gives the rate over that step.
+     * @return The distance per second.
+     */
+    public double getRate() {
+        double count = x.getN();
+        long now = hal.micros();
+        if(now != lastMicros) {
+            rate = 1e6*(count - lastCount) / (now - lastMicros);
+            lastCount = count;
+            lastMicros = now;
+        }
+        return rate*distancePerPulse;
+    }
+
+    public double pidGet() {
+        return getDistance();
     }
 
     public double getN() {
@@ -1,21 +1,80 @@
 package edu.neu.nutrons.fpmadop.wpiclone;
 
+import edu.neu.nutrons.fpmadop.BlockThread;
 import edu.neu.nutrons.fpmadop.Num;
+import edu.neu.nutrons.fpmadop.hal.Hal;
+import edu.wpi.first.wpilibj.PIDSource;
 
 /**
- * WPILib's gyro with the {@link Num} interface.  {@link Num#getN()} is
- * {@link edu.wpi.first.wpilibj.Gyro#getAngle()}.
+ * A gyro with the {@link Num} and {@link PIDSource} interfaces.
+ * {@link Num#getN()} and {@link PIDSource#pidGet()} are
+ * {@link Gyro#getAngle()}. Reads through the current {@link Hal}, either every
+ * time or once per time step of a {@link BlockThread}.
  *
  * @author Ziv
  */
-public class Gyro extends edu.wpi.first.wpilibj.Gyro implements Num {
+public class Gyro implements Num, PIDSource {
 
     /**
-     * Creates a gyro identical to {@link edu.wpi.first.wpilibj.Gyro}.
+     * The sensitivity the HAL's angle assumes, that of WPILib's default gyro,
+     * in volts per degree per second.
+     */
+    public static final double DEFAULT_SENSITIVITY = 0.007;
+
+    private Num x;
+    // The angle is base plus the HAL's angle since offset, scaled.
+    private double base = 0.0;
+    private double offset = 0.0;
+    private double scale = 1.0;
+
+    /**
+     * Creates a gyro.
      * @param channel The analog channel the gyro is connected to.
      */
     public Gyro(int channel) {
-        super(channel);
+        x = Hal.get().gyro(channel);
+    }
+
+    /**
+     * Creates a gyro that is read once per time step.
+     * @param channel The analog channel the gyro is connected to.
+     * @param thread The thread whose {@link BlockThread#snapshot()} samples
+     * the gyro.
+     */
+    public Gyro(int channel, BlockThread thread) {
+        x = thread.snapshot().add(Hal.get().gyro(channel));
+    }
+
+    /**
+     * The angle since the gyro was created or last reset.
+     * @return The angle in degrees.
+     */
+    public double getAngle() {
+        return base + scale*(x.getN() - offset);
+    }
+
+    /**
+     * Sets the angle to zero.
+     */
+    public void reset() {
+        base = 0.0;
+        offset = x.getN();
+    }
+
+    /**
+     * Sets the gyro's sensitivity. Like WPILib's, it only affects rotation
+     * from now on.
+     * @param voltsPerDegreePerSecond The sensitivity in volts per degree per
+     * second.
+     */
+    public void setSensitivity(double voltsPerDegreePerSecond) {
+        base = getAngle();
+        offset = x.getN();
+        scale = DEFAULT_SENSITIVITY / voltsPerDegreePerSecond;
+    }
+
+    public double pidGet() {
+        return getAngle();
     }
 
     public double getN() {
@@ -1,6 +1,8 @@
 package edu.neu.nutrons.fpmadop.wpiclone;
 
+import edu.neu.nutrons.fpmadop.BlockThread;
 import edu.neu.nutrons.fpmadop.Num;
+import edu.neu.nutrons.fpmadop.hal.Hal;
 import edu.wpi.first.wpilibj.GenericHID;
 
 /**
@@ -10,20 +12,51 @@ import edu.wpi.first.wpilibj.GenericHID;
  */
 public class JoystickAxis implements Num {
 
-    private GenericHID js;
-    private int axis = 1;
+    private static class RawAxis implements Num {
+        private GenericHID js;
+        private int axis;
+        private RawAxis(GenericHID js, int axis) {
+            this.js = js;
+            this.axis = axis;
+        }
+        public double getN() {
+            return js.getRawAxis(axis);
+        }
+    }
+
+    private Num x;
 
     /**
-     * Makes a joystick axis.
+     * Makes a joystick axis that reads a WPILib joystick directly.
      * @param joystick The joystick the axis is on.
      * @param axisNumber The number of the axis.
      */
     public JoystickAxis(GenericHID joystick, int axisNumber) {
-        js = joystick;
-        axis = axisNumber;
+        x = new RawAxis(joystick, axisNumber);
+    }
+
+    /**
+     * Makes a joystick axis that reads through the current {@link Hal}.
+     * @param port The driver station port the joystick is plugged into.
+     * @param axisNumber The number of the axis.
+     */
+    public JoystickAxis(int port, int axisNumber) {
+        x = Hal.get().joystickAxis(port, axisNumber);
+    }
+
+    /**
+     * Makes a joystick axis that reads through the current {@link Hal} once
+     * per time step.
+     * @param port The driver station port the joystick is plugged into.
+     * @param axisNumber The number of the axis.
+     * @param thread The thread whose {@link BlockThread#snapshot()} samples
+     * the axis.
+     */
+    public JoystickAxis(int port, int axisNumber, BlockThread thread) {
+        x = thread.snapshot().add(Hal.get().joystickAxis(port, axisNumber));
     }
 
     public double getN() {
-        return js.getRawAxis(axis);
+        return x.getN();
     }
 }
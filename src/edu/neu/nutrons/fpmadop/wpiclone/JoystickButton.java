@@ -1,28 +1,69 @@
 package edu.neu.nutrons.fpmadop.wpiclone;
 
+import edu.neu.nutrons.fpmadop.BlockThread;
 import edu.neu.nutrons.fpmadop.Bool;
+import edu.neu.nutrons.fpmadop.hal.Hal;
 import edu.wpi.first.wpilibj.GenericHID;
+import edu.wpi.first.wpilibj.buttons.Button;
 
 /**
- * WPILib's joystick button with the {@link Bool} interface. {@link Bool#getB()}
- * is {@link edu.wpi.first.wpilibj.JoystickButton#get()}.
+ * A joystick button that is both a WPILib {@link Button} and a {@link Bool}.
+ * {@link Bool#getB()} is {@link JoystickButton#get()}.
  *
  * @author Ziv
  */
-public class JoystickButton extends edu.wpi.first.wpilibj.buttons.JoystickButton
-                            implements Bool {
+public class JoystickButton extends Button implements Bool {
+
+    private static class RawButton implements Bool {
+        private GenericHID js;
+        private int button;
+        private RawButton(GenericHID js, int button) {
+            this.js = js;
+            this.button = button;
+        }
+        public boolean getB() {
+            return js.getRawButton(button);
+        }
+    }
+
+    private Bool p;
 
     /**
-     * Creates a joystick button identical to
-     * {@link edu.wpi.first.wpilibj.JoystickButton}.
+     * Creates a joystick button that reads a WPILib joystick directly.
      * @param joystick The joystick the button is on.
      * @param buttonNumber The number of the button.
      */
     public JoystickButton(GenericHID joystick, int buttonNumber) {
-        super(joystick, buttonNumber);
+        p = new RawButton(joystick, buttonNumber);
+    }
+
+    /**
+     * Creates a joystick button that reads through the current {@link Hal}.
+     * @param port The driver station port the joystick is plugged into.
+     * @param buttonNumber The number of the button.
+     */
+    public JoystickButton(int port, int buttonNumber) {
+        p = Hal.get().joystickButton(port, buttonNumber);
+    }
+
+    /**
+     * Creates a joystick button that reads through the current {@link Hal}
+     * once per time step.
+     * @param port The driver station port the joystick is plugged into.
+     * @param buttonNumber The number of the button.
+     * @param thread The thread whose {@link BlockThread#snapshot()} samples
+     * the button.
+     */
+    public JoystickButton(int port, int buttonNumber, BlockThread thread) {
+        p = thread.snapshot().add(Hal.get().joystickButton(port,
+                                                           buttonNumber));
+    }
+
+    public boolean get() {
+        return p.getB();
     }
 
     public boolean getB() {
-        return get();
+        return p.getB();
     }
 }
@@ -1,21 +1,41 @@
 package edu.neu.nutrons.fpmadop.wpiclone;
 
 import edu.neu.nutrons.fpmadop.Num;
+import edu.neu.nutrons.fpmadop.hal.Hal;
 
 /**
- * WPILib's timer with the {@link Num} interface. The only change is that this
- * class doesn't require an initial {@link edu.wpi.first.wpilibj.Timer#start()}.
+ * A timer with the {@link Num} interface. Unlike WPILib's timer, it starts
+ * when it is created. Reads the clock of the current {@link Hal}, so it
+ * follows simulated time in a simulation.
  *
  * @author Ziv
  */
-public class Timer extends edu.wpi.first.wpilibj.Timer implements Num {
+public class Timer implements Num {
+
+    private Hal hal;
+    private long start;
 
     /**
-     * Creates and starts a timer identical to
-     * {@link edu.wpi.first.wpilibj.Timer}.
+     * Creates and starts a timer.
      */
     public Timer() {
-        start();
+        hal = Hal.get();
+        start = hal.micros();
+    }
+
+    /**
+     * The time since the timer was created or last reset.
+     * @return The time in seconds.
+     */
+    public double get() {
+        return (hal.micros() - start) / 1e6;
+    }
+
+    /**
+     * Sets the time to zero.
+     */
+    public void reset() {
+        start = hal.micros();
     }
 
     public double getN() {